@@ -0,0 +1,70 @@
+package com.demo.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+// 握手解析: 问候 + CONNECT 请求在同一缓冲区中, 与一次读取拿到完整握手的情形一致
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HandshakeBenchmark {
+    @Param({"ipv4", "domain", "ipv6"})
+    public String target;
+
+    private byte[] handshake;
+    private int length;
+    private InetSocketAddress bound;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] addr;
+        byte atyp;
+        switch (target) {
+            case "domain":
+                byte[] host = "www.example.com".getBytes("ISO-8859-1");
+                addr = new byte[host.length + 1];
+                addr[0] = (byte) host.length;
+                System.arraycopy(host, 0, addr, 1, host.length);
+                atyp = 0x03;
+                break;
+            case "ipv6":
+                addr = InetAddress.getByName("2001:db8::1").getAddress();
+                atyp = 0x04;
+                break;
+            default:
+                addr = new byte[]{10, 0, 0, 1};
+                atyp = 0x01;
+        }
+        handshake = new byte[2048];
+        byte[] greeting = {0x05, 0x01, 0x00};
+        System.arraycopy(greeting, 0, handshake, 0, greeting.length);
+        int off = greeting.length;
+        handshake[off++] = 0x05;
+        handshake[off++] = 0x01;
+        handshake[off++] = 0x00;
+        handshake[off++] = atyp;
+        System.arraycopy(addr, 0, handshake, off, addr.length);
+        off += addr.length;
+        handshake[off++] = 0x01;
+        handshake[off++] = (byte) 0xBB;
+        length = off;
+        bound = new InetSocketAddress(InetAddress.getByName("192.168.1.20"), 40000);
+    }
+
+    @Benchmark
+    public Object parse() throws Throwable {
+        int greeting = (int) ProxyAccess.PARSE_GREETING.invokeExact(handshake, 0, length);
+        return (Object) ProxyAccess.PARSE_REQUEST.invokeExact(handshake, greeting, length - greeting);
+    }
+
+    @Benchmark
+    public byte[] reply() throws Throwable {
+        return (byte[]) ProxyAccess.BUILD_REPLY.invokeExact(0, bound);
+    }
+}
@@ -0,0 +1,265 @@
+package com.demo.bench;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * 负载驱动: 代理在独立 JVM 进程中运行, 目标为本进程内的 echo/sink 服务.
+ * 每个并发级别分两段:
+ *   短连接段 - 反复建立连接、完成握手、echo 一个小包后关闭, 统计连接/秒与握手延迟分位数;
+ *   吞吐段   - 每个线程保持一条隧道持续向 sink 写入, 统计 MB/s.
+ * 用法: LoadDriver [--engine bio,nio] [--concurrency 1,16,64,256] [--duration 5] [--port 19080] [--max-sessions 2048]
+ */
+public class LoadDriver {
+    private static final byte[] GREETING = {0x05, 0x01, 0x00};
+    private static final int ECHO_SIZE = 32;
+    private static final int CHUNK = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = parseArgs(args);
+        String[] engines = opts.getOrDefault("engine", "bio,nio").split(",");
+        int[] levels = Arrays.stream(opts.getOrDefault("concurrency", "1,16,64,256").split(","))
+                .mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+        long durationMs = Long.parseLong(opts.getOrDefault("duration", "5")) * 1000;
+        int port = Integer.parseInt(opts.getOrDefault("port", "19080"));
+        int maxSessions = Integer.parseInt(opts.getOrDefault("max-sessions", "2048"));
+
+        LocalServers.Server echo = LocalServers.echo();
+        LocalServers.Server sink = LocalServers.sink();
+        System.out.printf("%-6s %6s %10s %10s %10s %10s %10s %8s%n",
+                "engine", "conc", "conn/s", "p50(ms)", "p99(ms)", "p999(ms)", "MB/s", "errors");
+        try {
+            for (String engine : engines) {
+                Process proxy = launchProxy(port, engine.trim(), maxSessions);
+                try {
+                    awaitListening(port, 10000);
+                    for (int level : levels) {
+                        ConnectResult c = connectPhase(port, echo.port(), level, durationMs);
+                        ThroughputResult t = throughputPhase(port, sink, level, durationMs);
+                        System.out.printf("%-6s %6d %10.0f %10.3f %10.3f %10.3f %10.1f %8d%n",
+                                engine.trim(), level, c.connPerSec, c.p50, c.p99, c.p999, t.mbPerSec,
+                                c.errors + t.errors);
+                    }
+                } finally {
+                    proxy.destroy();
+                    proxy.waitFor();
+                }
+            }
+        } finally {
+            echo.close();
+            sink.close();
+        }
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> opts = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("无法识别的参数: " + args[i]);
+            }
+            opts.put(args[i].substring(2), args[i + 1]);
+        }
+        return opts;
+    }
+
+    private static Process launchProxy(int port, String engine, int maxSessions) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ProxyMain.class.getName(), String.valueOf(port), engine, String.valueOf(maxSessions),
+                "1024", "256");
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        return pb.start();
+    }
+
+    private static void awaitListening(int port, long timeoutMs) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress("127.0.0.1", port), 500);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("代理未在 " + timeoutMs + "ms 内开始监听: " + e.getMessage());
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    static final class ConnectResult {
+        double connPerSec, p50, p99, p999;
+        long errors;
+    }
+
+    static final class ThroughputResult {
+        double mbPerSec;
+        long errors;
+    }
+
+    private static ConnectResult connectPhase(final int proxyPort, final int echoPort, int threads, final long durationMs)
+            throws InterruptedException {
+        final long[][] samples = new long[threads][];
+        final int[] counts = new int[threads];
+        final AtomicLong errors = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long start = System.nanoTime();
+        final long end = start + durationMs * 1_000_000L;
+        for (int i = 0; i < threads; i++) {
+            final int idx = i;
+            Thread t = new Thread(() -> {
+                long[] latencies = new long[4096];
+                int n = 0;
+                byte[] payload = new byte[ECHO_SIZE];
+                byte[] reply = new byte[10];
+                while (System.nanoTime() < end) {
+                    try {
+                        long hs = oneConnection(proxyPort, echoPort, payload, reply);
+                        if (n == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, n * 2);
+                        }
+                        latencies[n++] = hs;
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+                samples[idx] = latencies;
+                counts[idx] = n;
+                done.countDown();
+            }, "Bench-connect-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        int total = 0;
+        for (int c : counts) {
+            total += c;
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (int i = 0; i < threads; i++) {
+            System.arraycopy(samples[i], 0, all, pos, counts[i]);
+            pos += counts[i];
+        }
+        Arrays.sort(all);
+        ConnectResult r = new ConnectResult();
+        r.connPerSec = total / elapsed;
+        r.p50 = percentile(all, 0.50);
+        r.p99 = percentile(all, 0.99);
+        r.p999 = percentile(all, 0.999);
+        r.errors = errors.get();
+        return r;
+    }
+
+    // 返回从发起 TCP 连接到收到 CONNECT 成功应答的纳秒数
+    private static long oneConnection(int proxyPort, int echoPort, byte[] payload, byte[] reply) throws IOException {
+        try (Socket s = new Socket()) {
+            s.setTcpNoDelay(true);
+            // 以 RST 结束, 避免短连接压测耗尽本地端口
+            s.setSoLinger(true, 0);
+            long t0 = System.nanoTime();
+            s.connect(new InetSocketAddress("127.0.0.1", proxyPort), 5000);
+            s.setSoTimeout(10000);
+            OutputStream out = s.getOutputStream();
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            out.write(GREETING);
+            in.readFully(reply, 0, 2);
+            if (reply[1] != 0x00) {
+                throw new IOException("方法协商被拒绝");
+            }
+            out.write(connectRequest(echoPort));
+            in.readFully(reply, 0, 10);
+            if (reply[1] != 0x00) {
+                throw new IOException("CONNECT 失败: " + reply[1]);
+            }
+            long hs = System.nanoTime() - t0;
+            out.write(payload);
+            in.readFully(payload);
+            return hs;
+        }
+    }
+
+    private static byte[] connectRequest(int port) {
+        return new byte[]{0x05, 0x01, 0x00, 0x01, 127, 0, 0, 1, (byte) (port >> 8), (byte) port};
+    }
+
+    private static ThroughputResult throughputPhase(final int proxyPort, LocalServers.Server sink, int threads,
+                                                    final long durationMs) throws Exception {
+        final AtomicLong errors = new AtomicLong();
+        final List<Socket> tunnels = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Socket s = new Socket();
+            try {
+                s.connect(new InetSocketAddress("127.0.0.1", proxyPort), 5000);
+                s.setSoTimeout(10000);
+                OutputStream out = s.getOutputStream();
+                DataInputStream in = new DataInputStream(s.getInputStream());
+                byte[] reply = new byte[10];
+                out.write(GREETING);
+                in.readFully(reply, 0, 2);
+                out.write(connectRequest(sink.port()));
+                in.readFully(reply, 0, 10);
+                if (reply[1] != 0x00) {
+                    throw new IOException("CONNECT 失败: " + reply[1]);
+                }
+                tunnels.add(s);
+            } catch (IOException e) {
+                errors.incrementAndGet();
+                s.close();
+            }
+        }
+
+        final CountDownLatch done = new CountDownLatch(tunnels.size());
+        final long before = sink.received.get();
+        final long start = System.nanoTime();
+        final long end = start + durationMs * 1_000_000L;
+        for (final Socket s : tunnels) {
+            Thread t = new Thread(() -> {
+                byte[] chunk = new byte[CHUNK];
+                try {
+                    OutputStream out = s.getOutputStream();
+                    while (System.nanoTime() < end) {
+                        out.write(chunk);
+                    }
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            }, "Bench-stream");
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+        long bytes = sink.received.get() - before;
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        for (Socket s : tunnels) {
+            s.close();
+        }
+        ThroughputResult r = new ThroughputResult();
+        r.mbPerSec = bytes / elapsed / (1024 * 1024);
+        r.errors = errors.get();
+        return r;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))] / 1e6;
+    }
+}
@@ -0,0 +1,79 @@
+package com.demo.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 压测用的本地目标服务: echo 原样回写, sink 只读取并计数
+final class LocalServers {
+    private LocalServers() {
+    }
+
+    static Server echo() throws IOException {
+        return new Server("echo", true);
+    }
+
+    static Server sink() throws IOException {
+        return new Server("sink", false);
+    }
+
+    static final class Server implements Runnable {
+        final AtomicLong received = new AtomicLong();
+        private final ServerSocket server;
+        private final boolean echo;
+
+        Server(String name, boolean echo) throws IOException {
+            this.echo = echo;
+            server = new ServerSocket();
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+            Thread t = new Thread(this, "Bench-" + name);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    final Socket s = server.accept();
+                    Thread t = new Thread(() -> serve(s), "Bench-conn");
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket s) {
+            byte[] buf = new byte[65536];
+            try {
+                s.setTcpNoDelay(true);
+                InputStream in = s.getInputStream();
+                OutputStream out = s.getOutputStream();
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    received.addAndGet(n);
+                    if (echo) {
+                        out.write(buf, 0, n);
+                    }
+                }
+            } catch (IOException ignored) {
+            } finally {
+                try { s.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        void close() {
+            try { server.close(); } catch (IOException ignored) {}
+        }
+    }
+}
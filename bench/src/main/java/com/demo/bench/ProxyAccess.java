@@ -0,0 +1,71 @@
+package com.demo.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 代理类位于默认包且方法多为包私有, 这里统一用 MethodHandle 访问; static final 句柄可被 JIT 内联
+final class ProxyAccess {
+    static final Class<?> PROXY;
+    static final MethodHandle PARSE_GREETING;
+    static final MethodHandle PARSE_REQUEST;
+    static final MethodHandle BUILD_REPLY;
+    // relay(Socket, Socket, AtomicLong, Flow, Watch), Flow 与 Watch 为包私有类型, 统一按 Object 传入
+    static final MethodHandle RELAY;
+    // new Watch(Socket), 每次转发一个, 两个方向都结束后即失效
+    static final MethodHandle NEW_WATCH;
+    private static final Field RUNNING;
+
+    static {
+        try {
+            PROXY = Class.forName("OracleSocks5Proxy");
+            PARSE_GREETING = handle("parseGreeting", byte[].class, int.class, int.class);
+            PARSE_REQUEST = handle("parseRequest", byte[].class, int.class, int.class)
+                    .asType(MethodType.methodType(Object.class, byte[].class, int.class, int.class));
+            BUILD_REPLY = handle("buildReply", int.class, InetSocketAddress.class);
+            Class<?> flow = Class.forName("OracleSocks5Proxy$Flow");
+            Class<?> watch = Class.forName("OracleSocks5Proxy$Watch");
+            RELAY = handle("relay", Socket.class, Socket.class, AtomicLong.class, flow, watch)
+                    .asType(MethodType.methodType(void.class, Socket.class, Socket.class, AtomicLong.class,
+                            Object.class, Object.class));
+            Constructor<?> c = watch.getDeclaredConstructor(Socket.class);
+            c.setAccessible(true);
+            NEW_WATCH = MethodHandles.lookup().unreflectConstructor(c)
+                    .asType(MethodType.methodType(Object.class, Socket.class));
+            RUNNING = PROXY.getDeclaredField("running");
+            RUNNING.setAccessible(true);
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private ProxyAccess() {
+    }
+
+    private static MethodHandle handle(String name, Class<?>... params) throws Exception {
+        Method m = PROXY.getDeclaredMethod(name, params);
+        m.setAccessible(true);
+        return MethodHandles.lookup().unreflect(m);
+    }
+
+    // relay 循环以 running 为条件, 单独测试时需手动置位
+    static void setRunning(boolean running) throws IllegalAccessException {
+        RUNNING.setBoolean(null, running);
+    }
+
+    static void start(int port, String engine, int maxSessions, int backlog, int queueSize) throws Exception {
+        PROXY.getMethod("start", int.class, String.class, int.class, int.class, int.class)
+                .invoke(null, port, engine, maxSessions, backlog, queueSize);
+    }
+
+    // 返回停止时仍在的连接数
+    static int stop(int port, int deadlineMs) throws Exception {
+        return (Integer) PROXY.getMethod("stop", int.class, int.class).invoke(null, port, deadlineMs);
+    }
+}
@@ -0,0 +1,18 @@
+package com.demo.bench;
+
+// 以普通 JVM 进程运行代理: ProxyMain <port> [bio|nio] [maxSessions] [backlog] [queueSize]
+public class ProxyMain {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法: ProxyMain <port> [bio|nio] [maxSessions] [backlog] [queueSize]");
+            System.exit(2);
+        }
+        int port = Integer.parseInt(args[0]);
+        String engine = args.length > 1 ? args[1] : "bio";
+        int maxSessions = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        int backlog = args.length > 3 ? Integer.parseInt(args[3]) : 128;
+        int queueSize = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        ProxyAccess.start(port, engine, maxSessions, backlog, queueSize);
+        System.out.println("代理已启动: 端口 " + port + ", 引擎 " + engine.toUpperCase());
+    }
+}
@@ -0,0 +1,141 @@
+package com.demo.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 缓冲转发: 每次操作转发 TOTAL 字节, 输入流按 chunk 大小分片返回, 模拟不同的单次读取量
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RelayBenchmark {
+    static final int TOTAL = 8 * 1024 * 1024;
+
+    @Param({"512", "8192", "65536"})
+    public int chunk;
+
+    private final byte[] payload = new byte[65536];
+    private final AtomicLong counter = new AtomicLong();
+
+    @Setup
+    public void setup() throws Exception {
+        ProxyAccess.setRunning(true);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ProxyAccess.setRunning(false);
+    }
+
+    // 整形默认关闭, relay 不会用到 Flow, 传 null
+    @Benchmark
+    public long pooledRelay(Blackhole bh) throws Throwable {
+        counter.set(0);
+        Socket from = new StreamSocket(new ChunkedInput(payload, chunk, TOTAL), null);
+        Socket to = new StreamSocket(null, new SinkOutput(bh));
+        ProxyAccess.RELAY.invokeExact(from, to, counter, (Object) null, (Object) ProxyAccess.NEW_WATCH.invokeExact(from));
+        return counter.get();
+    }
+
+    // 对照组: 固定 8K 缓冲区的朴素转发
+    @Benchmark
+    public long fixedBuffer(Blackhole bh) throws Exception {
+        InputStream in = new ChunkedInput(payload, chunk, TOTAL);
+        OutputStream out = new SinkOutput(bh);
+        byte[] buf = new byte[8192];
+        long total = 0;
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    static final class ChunkedInput extends InputStream {
+        private final byte[] payload;
+        private final int chunk;
+        private int remaining;
+
+        ChunkedInput(byte[] payload, int chunk, int total) {
+            this.payload = payload;
+            this.chunk = chunk;
+            this.remaining = total;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, chunk), Math.min(remaining, payload.length));
+            System.arraycopy(payload, 0, b, off, n);
+            remaining -= n;
+            return n;
+        }
+    }
+
+    // relay 以套接字为参数, 这里只借用其输入输出流; 半关闭与关闭都不做任何事
+    static final class StreamSocket extends Socket {
+        private final InputStream in;
+        private final OutputStream out;
+
+        StreamSocket(InputStream in, OutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public void shutdownOutput() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static final class SinkOutput extends OutputStream {
+        private final Blackhole bh;
+
+        SinkOutput(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void write(int b) {
+            bh.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bh.consume(b[off + len - 1]);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.demo.bench;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+// 基准与负载驱动经反射访问代理内部, 代理改签名时两边都能编译通过; 这里把每个句柄实际调用一次,
+// 并按 ProxyMain 的方式启动代理走通一次 CONNECT, 使问题在基准构建的 test 阶段暴露
+class ProxyAccessTest {
+    @Test
+    void handshakeHandles() throws Throwable {
+        byte[] b = {0x05, 0x01, 0x00, 0x05, 0x01, 0x00, 0x01, 10, 0, 0, 1, 0x01, (byte) 0xBB};
+        int greeting = (int) ProxyAccess.PARSE_GREETING.invokeExact(b, 0, b.length);
+        assertEquals(3, greeting);
+        assertNotNull((Object) ProxyAccess.PARSE_REQUEST.invokeExact(b, greeting, b.length - greeting));
+        byte[] reply = (byte[]) ProxyAccess.BUILD_REPLY.invokeExact(0,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 443));
+        assertEquals(10, reply.length);
+    }
+
+    @Test
+    void relayHandle() throws Throwable {
+        byte[] payload = new byte[100000];
+        Arrays.fill(payload, (byte) 7);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        Socket from = new RelayBenchmark.StreamSocket(new ByteArrayInputStream(payload), null);
+        Socket to = new RelayBenchmark.StreamSocket(null, sink);
+        AtomicLong counter = new AtomicLong();
+        ProxyAccess.setRunning(true);
+        try {
+            ProxyAccess.RELAY.invokeExact(from, to, counter, (Object) null, (Object) ProxyAccess.NEW_WATCH.invokeExact(from));
+        } finally {
+            ProxyAccess.setRunning(false);
+        }
+        assertEquals(payload.length, counter.get());
+        assertArrayEquals(payload, sink.toByteArray());
+    }
+
+    @Test
+    void proxyMainServesConnect() throws Exception {
+        LocalServers.Server echo = LocalServers.echo();
+        try {
+            for (String engine : new String[]{"bio", "nio"}) {
+                int port = freePort();
+                ProxyMain.main(new String[]{String.valueOf(port), engine});
+                try (Socket s = connect(port, 5000)) {
+                    s.setSoTimeout(5000);
+                    OutputStream out = s.getOutputStream();
+                    DataInputStream in = new DataInputStream(s.getInputStream());
+                    byte[] reply = new byte[10];
+                    out.write(new byte[]{0x05, 0x01, 0x00});
+                    in.readFully(reply, 0, 2);
+                    out.write(new byte[]{0x05, 0x01, 0x00, 0x01, 127, 0, 0, 1,
+                            (byte) (echo.port() >> 8), (byte) echo.port()});
+                    in.readFully(reply);
+                    assertEquals(0x00, reply[1], engine);
+                    byte[] ping = "ping".getBytes("US-ASCII");
+                    out.write(ping);
+                    byte[] pong = new byte[ping.length];
+                    in.readFully(pong);
+                    assertArrayEquals(ping, pong, engine);
+                } finally {
+                    ProxyAccess.stop(port, 0);
+                }
+            }
+        } finally {
+            echo.close();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    // 监听在代理线程中异步建立
+    private static Socket connect(int port, long timeoutMs) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            Socket s = new Socket();
+            try {
+                s.connect(new InetSocketAddress("127.0.0.1", port), 500);
+                return s;
+            } catch (IOException e) {
+                s.close();
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.demo;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// 多路复用隧道的块压缩, 与 OracleSocks5Proxy.BlockCodec 对应: 每个 DATA 帧独立 raw deflate,
+// 压缩后未省下 1/8 时原样发送并按指数退避跳过该流后续若干块
+class BlockCompressor {
+    private static final int MIN_BLOCK = 256;
+    private static final int MAX_SKIP = 64;
+
+    private final ConcurrentLinkedQueue<Deflater> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicLong outRaw = new AtomicLong();
+    private final AtomicLong outWire = new AtomicLong();
+    private final AtomicLong inRaw = new AtomicLong();
+    private final AtomicLong inWire = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong deflateNanos = new AtomicLong();
+    private final AtomicLong inflateNanos = new AtomicLong();
+
+    // 单个流单个方向的退避状态, 只由该方向的写线程访问
+    static final class Backoff {
+        private int skip;
+        private int next = 1;
+    }
+
+    // 返回压缩后的长度, 0 表示本块应原样发送
+    int deflate(Backoff b, byte[] src, int off, int len, byte[] dst) {
+        outRaw.addAndGet(len);
+        if (len < MIN_BLOCK || b.skip > 0) {
+            if (b.skip > 0) {
+                b.skip--;
+                skipped.incrementAndGet();
+            }
+            outWire.addAndGet(len);
+            return 0;
+        }
+        Deflater d = idle.poll();
+        if (d == null) {
+            d = new Deflater(Deflater.BEST_SPEED, true);
+        }
+        long begin = System.nanoTime();
+        d.setInput(src, off, len);
+        d.finish();
+        int limit = Math.min(dst.length, len - len / 8);
+        int n = 0;
+        while (!d.finished() && n < limit) {
+            n += d.deflate(dst, n, limit - n);
+        }
+        boolean ok = d.finished() && n < limit;
+        d.reset();
+        idle.offer(d);
+        deflateNanos.addAndGet(System.nanoTime() - begin);
+        if (!ok) {
+            b.skip = b.next;
+            b.next = Math.min(MAX_SKIP, b.next * 2);
+            outWire.addAndGet(len);
+            return 0;
+        }
+        b.next = 1;
+        outWire.addAndGet(n);
+        return n;
+    }
+
+    int inflate(Inflater inf, byte[] src, int len, byte[] dst) throws IOException {
+        long begin = System.nanoTime();
+        try {
+            inf.setInput(src, 0, len);
+            int n = 0;
+            while (!inf.finished() && n < dst.length) {
+                int k = inf.inflate(dst, n, dst.length - n);
+                if (k == 0 && (inf.needsInput() || inf.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+            if (!inf.finished()) {
+                throw new ProtocolException("压缩块超长或不完整");
+            }
+            inWire.addAndGet(len);
+            inRaw.addAndGet(n);
+            return n;
+        } catch (DataFormatException e) {
+            throw new ProtocolException("压缩块格式错误: " + e.getMessage());
+        } finally {
+            inf.reset();
+            inflateNanos.addAndGet(System.nanoTime() - begin);
+        }
+    }
+
+    // 上行原始/线上字节, 下行原始/线上字节, 跳过的块数, 压缩与解压耗时 (微秒)
+    long[] getStats() {
+        return new long[]{outRaw.get(), outWire.get(), inRaw.get(), inWire.get(), skipped.get(),
+                deflateNanos.get() / 1000, inflateNanos.get() / 1000};
+    }
+}
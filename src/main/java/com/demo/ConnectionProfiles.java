@@ -0,0 +1,90 @@
+package com.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+// 连接配置缓存: 记录每个 host:port/service 上次登录成功的 URL 形式、驱动与数据库版本,
+// 再次登录时直接使用, 不再并行探测. 存放在 ~/.oracle-socks5/profiles.properties
+class ConnectionProfiles {
+    static final File DIR = new File(System.getProperty("user.home"), ".oracle-socks5");
+    private static final File FILE = new File(DIR, "profiles.properties");
+
+    static final class Profile {
+        final String form;
+        final String url;
+        final String driver;
+        final String version;
+
+        Profile(String form, String url, String driver, String version) {
+            this.form = form;
+            this.url = url;
+            this.driver = driver;
+            this.version = version;
+        }
+    }
+
+    static String key(String host, String port, String service) {
+        return host + ":" + port + "/" + service;
+    }
+
+    static synchronized Profile load(String key) {
+        Properties props = read();
+        String url = props.getProperty(key + ".url");
+        if (url == null) {
+            return null;
+        }
+        return new Profile(props.getProperty(key + ".form", ""), url,
+                props.getProperty(key + ".driver", ""), props.getProperty(key + ".version", "unknown"));
+    }
+
+    // 缓存写入失败不影响登录
+    static synchronized void save(String key, Profile profile) {
+        Properties props = read();
+        props.setProperty(key + ".form", profile.form);
+        props.setProperty(key + ".url", profile.url);
+        props.setProperty(key + ".driver", profile.driver);
+        props.setProperty(key + ".version", profile.version);
+        props.setProperty(key + ".saved", String.valueOf(System.currentTimeMillis()));
+        write(props);
+    }
+
+    // URL 形式已失效 (如库迁移) 时删除, 下次登录重新探测
+    static synchronized void remove(String key) {
+        Properties props = read();
+        for (String suffix : new String[]{".form", ".url", ".driver", ".version", ".saved"}) {
+            props.remove(key + suffix);
+        }
+        write(props);
+    }
+
+    private static Properties read() {
+        Properties props = new Properties();
+        if (FILE.isFile()) {
+            try (InputStream in = Files.newInputStream(FILE.toPath())) {
+                props.load(in);
+            } catch (IOException e) {
+                System.err.println("读取连接缓存失败: " + e.getMessage());
+            }
+        }
+        return props;
+    }
+
+    // 先写临时文件再替换, 并发启动的多个实例不会读到半个文件
+    private static void write(Properties props) {
+        try {
+            Files.createDirectories(DIR.toPath());
+            File tmp = File.createTempFile("profiles", ".tmp", DIR);
+            try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                props.store(out, "oracle-socks5 connection profiles");
+            }
+            Files.move(tmp.toPath(), FILE.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("写入连接缓存失败: " + e.getMessage());
+        }
+    }
+}
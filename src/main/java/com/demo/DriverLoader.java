@@ -0,0 +1,154 @@
+package com.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 各版本 ojdbc 以独立 jar 随工具打包 (drivers/*.jar), 首次用到时解出到 ~/.oracle-socks5/drivers
+// 并用单独的类加载器加载, 互不覆盖, 也不经 DriverManager 挑选. 默认 jar 只带 ojdbc8 (完整版见 -full 附属产物), 其余驱动手动放入该目录即可;
+// 目录与包内都没有时退回类路径上的驱动 (IDE 中直接运行)
+class DriverLoader {
+    static final String OJDBC6 = "ojdbc6";
+    static final String OJDBC8 = "ojdbc8";
+    static final String OJDBC10 = "ojdbc10";
+    // 版本未知时的首选顺序: ojdbc8 覆盖的数据库版本最广
+    private static final String[] PREFERENCE = {OJDBC8, OJDBC10, OJDBC6};
+    private static final String DRIVER_CLASS = "oracle.jdbc.OracleDriver";
+    private static final File DIR = new File(ConnectionProfiles.DIR, "drivers");
+
+    private static final Map<String, Driver> loaded = new ConcurrentHashMap<>();
+    // 按驱动分别加锁, 登录竞速时几个驱动可以同时加载
+    private static final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    static String forVersion(String version) {
+        if ("11g".equals(version)) {
+            return OJDBC6;
+        }
+        if ("19c+".equals(version)) {
+            return OJDBC10;
+        }
+        return OJDBC8;
+    }
+
+    // 首选驱动不可用时按默认顺序换一个; 都不可用时返回 null, 表示使用类路径上的驱动
+    static String resolve(String preferred) {
+        if (preferred != null && available(preferred)) {
+            return preferred;
+        }
+        for (String name : PREFERENCE) {
+            if (available(name)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    // 登录竞速的驱动候选, 按默认顺序; 都不可用时只有 null (类路径上的驱动)
+    static List<String> candidates() {
+        List<String> names = new ArrayList<>();
+        for (String name : PREFERENCE) {
+            if (available(name)) {
+                names.add(name);
+            }
+        }
+        if (names.isEmpty()) {
+            names.add(null);
+        }
+        return names;
+    }
+
+    static boolean available(String name) {
+        return bundled(name) != null || new File(DIR, name + ".jar").isFile();
+    }
+
+    static Connection connect(String name, String url, Properties props) throws SQLException {
+        if (name == null) {
+            return DriverManager.getConnection(url, props);
+        }
+        Driver driver = driver(name);
+        // 驱动内部按线程上下文类加载器查找资源 (错误信息等)
+        Thread current = Thread.currentThread();
+        ClassLoader previous = current.getContextClassLoader();
+        current.setContextClassLoader(driver.getClass().getClassLoader());
+        try {
+            Connection conn = driver.connect(url, props);
+            if (conn == null) {
+                throw new SQLException(name + " 不支持该连接串: " + url);
+            }
+            return conn;
+        } finally {
+            current.setContextClassLoader(previous);
+        }
+    }
+
+    private static Driver driver(String name) throws SQLException {
+        Driver driver = loaded.get(name);
+        if (driver != null) {
+            return driver;
+        }
+        synchronized (locks.computeIfAbsent(name, k -> new Object())) {
+            driver = loaded.get(name);
+            if (driver != null) {
+                return driver;
+            }
+            try {
+                File jar = extract(name);
+                // 父加载器取应用类加载器的上级, 既能看到 java.sql, 又看不到类路径上的其它驱动
+                ClassLoader parent = DriverLoader.class.getClassLoader().getParent();
+                URLClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, parent);
+                driver = (Driver) Class.forName(DRIVER_CLASS, true, loader).getDeclaredConstructor().newInstance();
+            } catch (IOException | ReflectiveOperationException | LinkageError e) {
+                // 如 ojdbc10 在 Java 8 上运行时报类版本错误
+                throw new SQLException("加载驱动 " + name + " 失败: " + e.getMessage(), e);
+            }
+            loaded.put(name, driver);
+            return driver;
+        }
+    }
+
+    private static URL bundled(String name) {
+        return DriverLoader.class.getResource("/drivers/" + name + ".jar");
+    }
+
+    // 目录中已有同样大小的文件时直接使用, 工具升级后驱动变化才重新解出
+    private static File extract(String name) throws IOException {
+        File target = new File(DIR, name + ".jar");
+        URL url = bundled(name);
+        if (url == null) {
+            if (!target.isFile()) {
+                throw new IOException("未找到 " + target);
+            }
+            return target;
+        }
+        // 从 target/classes 运行时驱动本来就是普通文件
+        if ("file".equals(url.getProtocol())) {
+            return new File(url.getPath());
+        }
+        URLConnection conn = url.openConnection();
+        long size = conn.getContentLengthLong();
+        if (target.isFile() && target.length() == size) {
+            return target;
+        }
+        Files.createDirectories(DIR.toPath());
+        File tmp = File.createTempFile(name, ".tmp", DIR);
+        try (InputStream in = conn.getInputStream()) {
+            Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return target;
+    }
+}
@@ -0,0 +1,372 @@
+package com.demo;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 入口: 无参数时启动图形界面; 带子命令时以无界面方式运行, 不加载 AWT/Swing,
+// 标准输出每行一个 JSON 对象 (事件), 其余日志一律走标准错误, 便于脚本解析与启动耗时测量
+public class Launcher {
+    private static final String USAGE = String.join("\n",
+            "用法: java -jar oracle-socks5.jar [connect|start|status|stop|configure|probe] 选项...",
+            "  不带子命令时启动图形界面",
+            "  数据库: --host H --port 1521 --service ORCL --user U [--password P] [--sysdba] [--service-name]",
+            "          密码未指定时读取环境变量 ORACLE_SOCKS5_PASSWORD",
+            "  代理:   --proxy-port 1080 [--engine bio|nio] [--max-sessions 256] [--backlog 128] [--queue-size 64]",
+            "          [--shaping global=10m,flow=2m] [--mux-port N] [--compress] [--pool-port N] [--pool-size 8]",
+            "          [--metrics-port N] [--timeouts handshake=10s,connect=10s,idle=10m,half=60s]",
+            "          [--nodelay on|off] [--keepalive] [--rcvbuf 字节] [--sndbuf 字节]",
+            "  connect 仅验证登录; start 安装并启动代理, 阻塞到代理停止 (Ctrl+C 停止);",
+            "  status  查询运行中代理的计数; stop 停止运行中的代理 (可由其它进程启动, 经 v$session 查找;",
+            "          未指定 --proxy-port 时取最近启动的一个)",
+            "  configure --options sessions=512,nodelay=on,rcvbuf=256k,idle=5m,global=10m 调整运行中的代理, 无需重启",
+            "  probe   --host H --proxy-port 1080 --target host:port[/path] [--concurrency 8] [--connections 32]",
+            "          [--transfer-ms 3000] 经代理并发连接目标, 输出各阶段延迟分位与吞吐, 不需要数据库账号");
+
+    private static PrintStream json;
+
+    public static void main(String[] args) throws UnsupportedEncodingException {
+        if (args.length == 0 || "gui".equals(args[0])) {
+            MainFrame.main(args);
+            return;
+        }
+        // 库内安装过程的提示信息打印在标准输出上, 改道到标准错误, 标准输出只留 JSON (固定 UTF-8, 不随平台编码)
+        json = new PrintStream(new FileOutputStream(FileDescriptor.out), true, "UTF-8");
+        System.setOut(System.err);
+        int code;
+        try {
+            Map<String, String> opts = parseOptions(args);
+            switch (args[0]) {
+                case "connect":
+                    code = connect(opts);
+                    break;
+                case "start":
+                    code = start(opts);
+                    break;
+                case "status":
+                    code = status(opts);
+                    break;
+                case "stop":
+                    code = stop(opts);
+                    break;
+                case "configure":
+                    code = configure(opts);
+                    break;
+                case "probe":
+                    code = probe(opts);
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知命令: " + args[0]);
+            }
+        } catch (IllegalArgumentException e) {
+            emit(event("error").put("message", e.getMessage()));
+            System.err.println(USAGE);
+            code = 2;
+        } catch (Exception e) {
+            emit(event("error").put("message", String.valueOf(e.getMessage())));
+            code = 1;
+        }
+        System.exit(code);
+    }
+
+    private static int connect(Map<String, String> opts) throws SQLException {
+        SocksInjector injector = login(opts);
+        injector.close();
+        return 0;
+    }
+
+    private static int status(Map<String, String> opts) throws SQLException {
+        SocksInjector injector = login(opts);
+        try {
+            Map<String, Long> metrics = injector.reattach(intOption(opts, "proxy-port", 0));
+            emit(event("status")
+                    .put("proxy_port", injector.getProxyPort())
+                    .put("session", injector.getListenerSession())
+                    .put("reattach_ms", injector.getPhaseTimings().get("重新接管"))
+                    .put("metrics", metrics));
+            return 0;
+        } finally {
+            injector.close();
+        }
+    }
+
+    private static int stop(Map<String, String> opts) throws SQLException {
+        SocksInjector injector = login(opts);
+        try {
+            injector.reattach(intOption(opts, "proxy-port", 0));
+            boolean stopped = injector.stop();
+            emit(event("stopped").put("ok", stopped));
+            return stopped ? 0 : 1;
+        } finally {
+            injector.close();
+        }
+    }
+
+    private static int configure(Map<String, String> opts) throws SQLException {
+        String options = required(opts, "options");
+        SocksInjector injector = login(opts);
+        try {
+            injector.reattach(intOption(opts, "proxy-port", 0));
+            emit(event("configured")
+                    .put("proxy_port", injector.getProxyPort())
+                    .put("settings", injector.reconfigure(options)));
+            return 0;
+        } finally {
+            injector.close();
+        }
+    }
+
+    private static int probe(Map<String, String> opts) throws InterruptedException {
+        ProxyProbe.Result result = ProxyProbe.forTarget(required(opts, "host"), intOption(opts, "proxy-port", -1),
+                        required(opts, "target"))
+                .setConcurrency(intOption(opts, "concurrency", 8))
+                .setConnections(intOption(opts, "connections", 32))
+                .setTransferMs(intOption(opts, "transfer-ms", 3000))
+                .run();
+        Json event = event("probe");
+        result.toMap().forEach(event::put);
+        emit(event);
+        return result.getSucceeded() > 0 ? 0 : 1;
+    }
+
+    // inject 会一直阻塞到监听结束: 放到后台线程, 前台轮询控制函数, 首次应答即视为监听就绪
+    private static int start(Map<String, String> opts) throws Exception {
+        int proxyPort = intOption(opts, "proxy-port", -1);
+        ProxyConfig config = new ProxyConfig()
+                .setEngine(opts.getOrDefault("engine", "bio").toLowerCase())
+                .setMaxSessions(intOption(opts, "max-sessions", 256))
+                .setBacklog(intOption(opts, "backlog", 128))
+                .setQueueSize(intOption(opts, "queue-size", 64))
+                .setShaping(opts.get("shaping"))
+                .setTimeouts(opts.get("timeouts"))
+                .setTcpNoDelay(!"off".equalsIgnoreCase(opts.getOrDefault("nodelay", "on")))
+                .setKeepAlive(opts.containsKey("keepalive"))
+                .setReceiveBuffer(intOption(opts, "rcvbuf", 0))
+                .setSendBuffer(intOption(opts, "sndbuf", 0));
+        SocksInjector injector = login(opts);
+
+        int muxPort = intOption(opts, "mux-port", 0);
+        int poolPort = intOption(opts, "pool-port", 0);
+        int metricsPort = intOption(opts, "metrics-port", 0);
+        MuxFrontend mux = muxPort > 0
+                ? new MuxFrontend(injector.getHost(), proxyPort, muxPort, 4, opts.containsKey("compress")) : null;
+        PooledFrontend pool = poolPort > 0
+                ? new PooledFrontend(injector.getHost(), proxyPort, poolPort, intOption(opts, "pool-size", 8)) : null;
+        MetricsExporter exporter = metricsPort > 0 ? new MetricsExporter(injector, metricsPort, 5000) : null;
+        if (mux != null) {
+            mux.start();
+        }
+        if (pool != null) {
+            pool.start();
+        }
+        if (exporter != null) {
+            exporter.start();
+        }
+
+        long begin = System.nanoTime();
+        Throwable[] failure = new Throwable[1];
+        Thread service = new Thread(() -> {
+            try {
+                injector.inject(proxyPort, config);
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "Inject");
+        service.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (service.isAlive()) {
+                emit(event("stopping"));
+                emit(event("stopped").put("ok", injector.stop()));
+            }
+        }, "Stop"));
+
+        boolean listening = false;
+        while (service.isAlive() && !listening) {
+            Thread.sleep(100);
+            try {
+                injector.getMetrics();
+                listening = true;
+            } catch (SQLException e) {
+                // 监听尚未就绪或类仍在安装
+            }
+        }
+        if (listening) {
+            emit(event("listening")
+                    .put("proxy_port", proxyPort)
+                    .put("engine", config.getEngine())
+                    .put("startup_ms", (System.nanoTime() - begin) / 1_000_000)
+                    .put("phases_ms", injector.getPhaseTimings())
+                    .put("round_trips", injector.getPhaseRoundTrips())
+                    .put("mux_port", muxPort)
+                    .put("pool_port", poolPort)
+                    .put("metrics_port", metricsPort));
+        }
+        service.join();
+        if (exporter != null) {
+            exporter.stop();
+        }
+        if (mux != null) {
+            mux.stop();
+        }
+        if (pool != null) {
+            pool.stop();
+        }
+        if (failure[0] != null) {
+            throw new SQLException(failure[0].getMessage(), failure[0]);
+        }
+        emit(event("exited").put("served_ms", (System.nanoTime() - begin) / 1_000_000));
+        return 0;
+    }
+
+    private static SocksInjector login(Map<String, String> opts) throws SQLException {
+        String password = opts.containsKey("password") ? opts.get("password") : System.getenv("ORACLE_SOCKS5_PASSWORD");
+        if (password == null) {
+            throw new IllegalArgumentException("未指定密码");
+        }
+        SocksInjector injector = new SocksInjector(
+                required(opts, "host"),
+                opts.getOrDefault("port", "1521"),
+                required(opts, "service"),
+                required(opts, "user"),
+                password,
+                opts.containsKey("sysdba"),
+                opts.containsKey("service-name"));
+        emit(event("connected")
+                .put("version", injector.getOracleVersion())
+                .put("privilege", injector.checkDBAPrivilege())
+                .put("url_form", injector.getConnectForm())
+                .put("profile_hit", injector.isProfileHit())
+                .put("driver", injector.getDriverName())
+                .put("login_ms", injector.getLoginMillis()));
+        return injector;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("无法识别的参数: " + args[i]);
+            }
+            String key = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                opts.put(key, args[++i]);
+            } else {
+                opts.put(key, "");
+            }
+        }
+        return opts;
+    }
+
+    private static String required(Map<String, String> opts, String key) {
+        String value = opts.get(key);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("缺少参数 --" + key);
+        }
+        return value;
+    }
+
+    private static int intOption(Map<String, String> opts, String key, int def) {
+        String value = opts.get(key);
+        if (value == null) {
+            if (def < 0) {
+                throw new IllegalArgumentException("缺少参数 --" + key);
+            }
+            return def;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("参数 --" + key + " 需为整数: " + value);
+        }
+    }
+
+    // 每个事件都带上距 JVM 启动的毫秒数, 可直接用于测量冷启动
+    private static Json event(String name) {
+        return new Json().put("event", name)
+                .put("uptime_ms", System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime());
+    }
+
+    private static synchronized void emit(Json event) {
+        json.println(event);
+        json.flush();
+    }
+
+    // 仅支持本工具输出所需的类型: 字符串、数值、布尔与嵌套 Map
+    static final class Json {
+        private final Map<String, Object> fields = new LinkedHashMap<>();
+
+        Json put(String key, Object value) {
+            fields.put(key, value);
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            write(sb, fields);
+            return sb.toString();
+        }
+
+        private static void write(StringBuilder sb, Object value) {
+            if (value == null) {
+                sb.append("null");
+            } else if (value instanceof Number || value instanceof Boolean) {
+                sb.append(value);
+            } else if (value instanceof Map) {
+                sb.append('{');
+                Iterator<? extends Map.Entry<?, ?>> it = ((Map<?, ?>) value).entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<?, ?> e = it.next();
+                    quote(sb, String.valueOf(e.getKey()));
+                    sb.append(':');
+                    write(sb, e.getValue());
+                    if (it.hasNext()) {
+                        sb.append(',');
+                    }
+                }
+                sb.append('}');
+            } else {
+                quote(sb, value.toString());
+            }
+        }
+
+        private static void quote(StringBuilder sb, String s) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"':
+                        sb.append("\\\"");
+                        break;
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            sb.append('"');
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.demo;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 本机 SOCKS5 前端: 在客户端完成方法协商并读出 CONNECT 请求, 由子类决定如何送往库内代理
+public abstract class LocalSocksServer {
+    private final int localPort;
+    private final String name;
+    private ServerSocket server;
+    private ExecutorService pool;
+    private volatile boolean running;
+
+    protected LocalSocksServer(int localPort, String name) {
+        this.localPort = localPort;
+        this.name = name;
+    }
+
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), localPort), 256);
+        AtomicInteger seq = new AtomicInteger();
+        pool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, name + "-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        running = true;
+        ServerSocket listener = server;
+        Thread acceptor = new Thread(() -> acceptLoop(listener), name + "-Accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException ignored) {
+            }
+            server = null;
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    protected boolean isRunning() {
+        return running;
+    }
+
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    private void acceptLoop(ServerSocket listener) {
+        while (running) {
+            Socket client;
+            try {
+                client = listener.accept();
+            } catch (IOException e) {
+                return;
+            }
+            try {
+                pool.execute(() -> serve(client));
+            } catch (RuntimeException e) {
+                closeQuietly(client);
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            client.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(client.getInputStream());
+            OutputStream out = client.getOutputStream();
+            if (in.readUnsignedByte() != 0x05) {
+                return;
+            }
+            in.skipBytes(in.readUnsignedByte());
+            out.write(new byte[]{0x05, 0x00});
+
+            byte[] request = readMessage(in);
+            if (request == null) {
+                out.write(failure(0x08));
+                return;
+            }
+            if (request[1] != 0x01) {
+                out.write(failure(0x07));
+                return;
+            }
+            relay(client, request);
+        } catch (IOException ignored) {
+        } finally {
+            closeQuietly(client);
+        }
+    }
+
+    // 读出完整的请求或应答报文 (VER CMD/REP RSV ATYP 地址 端口), 两者布局相同; 地址类型不支持时返回 null
+    protected static byte[] readMessage(DataInputStream in) throws IOException {
+        byte[] head = new byte[4];
+        in.readFully(head);
+        if (head[0] != 0x05) {
+            return null;
+        }
+        int addrLen;
+        switch (head[3]) {
+            case 0x01:
+                addrLen = 4;
+                break;
+            case 0x04:
+                addrLen = 16;
+                break;
+            case 0x03:
+                addrLen = 1 + in.readUnsignedByte();
+                break;
+            default:
+                return null;
+        }
+        byte[] message = new byte[4 + addrLen + 2];
+        System.arraycopy(head, 0, message, 0, 4);
+        if (head[3] == 0x03) {
+            message[4] = (byte) (addrLen - 1);
+            in.readFully(message, 5, addrLen + 1);
+        } else {
+            in.readFully(message, 4, addrLen + 2);
+        }
+        return message;
+    }
+
+    // 请求已通过校验, 子类负责写回 SOCKS 应答并在会话结束前阻塞; 返回后连接由基类关闭
+    protected abstract void relay(Socket client, byte[] request) throws IOException;
+
+    protected void execute(Runnable task) {
+        ExecutorService p = pool;
+        if (p == null) {
+            throw new IllegalStateException("本地前端未启动");
+        }
+        p.execute(task);
+    }
+
+    protected static byte[] failure(int rep) {
+        return new byte[]{0x05, (byte) rep, 0x00, 0x01, 0, 0, 0, 0, 0, 0};
+    }
+
+    protected static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.demo;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 日志视图: 任意线程写入无锁队列, 定时器在 EDT 上每帧一次批量取出并写入定长环形缓冲,
+// 超出容量时丢弃最旧的行; JList 只绘制可见行, 过滤与导出直接遍历环形缓冲
+public class LogView extends JPanel {
+    private static final int FRAME_MS = 33;
+    // 单帧最多处理的行数, 突发写入时分摊到后续几帧, 保持界面响应
+    private static final int MAX_BATCH = 5000;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final String[] ring;
+    // 环形缓冲中最旧行与下一行的序号, 行序号对容量取模即为下标
+    private long first;
+    private long next;
+    private final RingModel model = new RingModel();
+    private final JList<String> list = new JList<>(model);
+    private final JScrollPane scrollPane = new JScrollPane(list);
+    private final JTextField filterField = new JTextField(20);
+    private final JLabel countLabel = new JLabel();
+    private long lastSecond = -1;
+    private String lastStamp;
+
+    public LogView(int capacity) {
+        super(new BorderLayout());
+        ring = new String[Math.max(16, capacity)];
+
+        list.setPrototypeCellValue("00:00:00 " + String.join("", Collections.nCopies(60, "M")));
+        list.setFixedCellHeight(22);
+        list.setBorder(new EmptyBorder(6, 10, 6, 10));
+        list.setBackground(new Color(250, 250, 250));
+        scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+
+        JButton exportButton = new JButton("导出");
+        JButton clearButton = new JButton("清空");
+        exportButton.addActionListener(e -> export());
+        clearButton.addActionListener(e -> clear());
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                model.setFilter(filterField.getText());
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                model.setFilter(filterField.getText());
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+                model.setFilter(filterField.getText());
+            }
+        });
+
+        JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 4));
+        toolbar.setOpaque(false);
+        toolbar.add(new JLabel("过滤:"));
+        toolbar.add(filterField);
+        toolbar.add(exportButton);
+        toolbar.add(clearButton);
+        toolbar.add(countLabel);
+        add(toolbar, BorderLayout.NORTH);
+        add(scrollPane, BorderLayout.CENTER);
+
+        new Timer(FRAME_MS, e -> flush()).start();
+    }
+
+    // 可在任意线程调用, 不触碰 Swing 组件
+    public void append(String message) {
+        pending.offer(new Entry(System.currentTimeMillis(), message));
+        pendingCount.incrementAndGet();
+    }
+
+    public void clear() {
+        SwingUtilities.invokeLater(() -> {
+            while (pending.poll() != null) {
+                pendingCount.decrementAndGet();
+            }
+            Arrays.fill(ring, null);
+            first = next;
+            dropped.set(0);
+            model.reset();
+            updateCount();
+        });
+    }
+
+    @Override
+    public void setFont(Font font) {
+        super.setFont(font);
+        if (list != null) {
+            list.setFont(font);
+            list.setFixedCellHeight(list.getFontMetrics(font).getHeight() + 4);
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        JScrollBar bar = scrollPane.getVerticalScrollBar();
+        boolean atBottom = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - list.getFixedCellHeight();
+        // 积压超过容量的部分反正会被挤出, 不格式化直接丢弃, 队列长度因此有界于一帧的写入量
+        int skip = pendingCount.get() - ring.length;
+        for (int i = 0; i < skip && pending.poll() != null; i++) {
+            pendingCount.decrementAndGet();
+            dropped.incrementAndGet();
+        }
+        long batchStart = next;
+        Entry entry;
+        int n = 0;
+        // 单批不超过容量, 被挤出的行总是本批之前已显示的行
+        int limit = Math.min(MAX_BATCH, ring.length);
+        while (n < limit && (entry = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            ring[(int) (next % ring.length)] = stamp(entry.time) + " " + entry.message;
+            next++;
+            n++;
+        }
+        long evicted = 0;
+        if (next - first > ring.length) {
+            evicted = next - ring.length - first;
+            dropped.addAndGet(evicted);
+            first = next - ring.length;
+        }
+        model.appended(batchStart, evicted);
+        updateCount();
+        if (atBottom && model.getSize() > 0) {
+            list.ensureIndexIsVisible(model.getSize() - 1);
+        }
+    }
+
+    // 同一秒内的行复用格式化结果
+    private String stamp(long millis) {
+        long second = millis / 1000;
+        if (second != lastSecond) {
+            lastSecond = second;
+            lastStamp = TIME.format(Instant.ofEpochMilli(millis));
+        }
+        return lastStamp;
+    }
+
+    private void updateCount() {
+        String text = model.getSize() + " / " + (next - first) + " 行";
+        long d = dropped.get();
+        countLabel.setText(d > 0 ? text + ", 已滚出 " + d + " 行" : text);
+    }
+
+    private String line(long seq) {
+        return ring[(int) (seq % ring.length)];
+    }
+
+    // 导出当前过滤结果; 只复制行引用, 写文件在后台线程完成
+    private void export() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("oracle-socks5.log"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        String[] lines = new String[model.getSize()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = model.getElementAt(i);
+        }
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                try (BufferedWriter w = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                    for (String l : lines) {
+                        w.write(l);
+                        w.newLine();
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    append("日志已导出: " + file.getAbsolutePath() + " (" + lines.length + " 行)");
+                } catch (Exception ex) {
+                    append("日志导出失败: " + ex.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    private static final class Entry {
+        final long time;
+        final String message;
+
+        Entry(long time, String message) {
+            this.time = time;
+            this.message = message;
+        }
+    }
+
+    // 未过滤时直接按序号映射到环形缓冲; 过滤时维护匹配行的序号队列, 同样随环形缓冲淘汰
+    private final class RingModel extends AbstractListModel<String> {
+        private String filter = "";
+        private long[] matches = new long[64];
+        private int matchHead;
+        private int matchCount;
+
+        @Override
+        public int getSize() {
+            return filter.isEmpty() ? (int) (next - first) : matchCount;
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            return line(filter.isEmpty() ? first + index : matches[(matchHead + index) % matches.length]);
+        }
+
+        void setFilter(String text) {
+            filter = text.trim();
+            matchHead = 0;
+            matchCount = 0;
+            if (!filter.isEmpty()) {
+                for (long seq = first; seq < next; seq++) {
+                    match(seq);
+                }
+            }
+            fireContentsChanged(this, 0, Integer.MAX_VALUE);
+            updateCount();
+        }
+
+        void reset() {
+            matchHead = 0;
+            matchCount = 0;
+            fireContentsChanged(this, 0, Integer.MAX_VALUE);
+        }
+
+        // 先报告被挤出的行再报告新增的行, 各一次事件
+        void appended(long batchStart, long evicted) {
+            int removed;
+            if (filter.isEmpty()) {
+                removed = (int) evicted;
+            } else {
+                removed = 0;
+                while (matchCount > 0 && matches[matchHead] < first) {
+                    matchHead = (matchHead + 1) % matches.length;
+                    matchCount--;
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                fireIntervalRemoved(this, 0, removed - 1);
+            }
+            int before = getSize();
+            if (filter.isEmpty()) {
+                before -= (int) (next - Math.max(batchStart, first));
+            } else {
+                for (long seq = Math.max(batchStart, first); seq < next; seq++) {
+                    match(seq);
+                }
+            }
+            if (getSize() > before) {
+                fireIntervalAdded(this, before, getSize() - 1);
+            }
+        }
+
+        private void match(long seq) {
+            if (!line(seq).contains(filter)) {
+                return;
+            }
+            if (matchCount == matches.length) {
+                long[] grown = new long[Math.min(ring.length, matches.length * 2)];
+                for (int i = 0; i < matchCount; i++) {
+                    grown[i] = matches[(matchHead + i) % matches.length];
+                }
+                matches = grown;
+                matchHead = 0;
+            }
+            matches[(matchHead + matchCount) % matches.length] = seq;
+            matchCount++;
+        }
+    }
+}
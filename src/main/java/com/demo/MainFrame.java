@@ -4,9 +4,9 @@ import javax.swing.*;
 import javax.swing.border.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 public class MainFrame extends JFrame {
@@ -26,17 +26,41 @@ public class MainFrame extends JFrame {
     private final JComboBox<String> serviceTypeCombo = new JComboBox<>(new String[]{"SID", "服务名"});
 
     private final JTextField proxyPortField = createStyledTextField("1080");
+    private final JComboBox<String> engineCombo = new JComboBox<>(new String[]{"BIO", "NIO"});
+    private final JTextField maxSessionsField = createStyledTextField("256");
+    private final JTextField backlogField = createStyledTextField("128");
+    private final JTextField queueSizeField = createStyledTextField("64");
+    private final JTextField metricsPortField = createStyledTextField("0");
+    private final JTextField muxPortField = createStyledTextField("0");
+    private final JTextField poolPortField = createStyledTextField("0");
+    private final JTextField poolSizeField = createStyledTextField("8");
+    private final JTextField shapingField = createStyledTextField("");
+    private final JCheckBox compressCheckBox = new JCheckBox("复用隧道压缩传输");
+    private final JTextField timeoutsField = createStyledTextField("");
+    private final JTextField receiveBufferField = createStyledTextField("0");
+    private final JTextField sendBufferField = createStyledTextField("0");
+    private final JCheckBox noDelayCheckBox = new JCheckBox("TCP_NODELAY", true);
+    private final JCheckBox keepAliveCheckBox = new JCheckBox("SO_KEEPALIVE");
+    private final JTextField probeTargetField = createStyledTextField("");
+    private final JTextField probeConcurrencyField = createStyledTextField("8");
     private final JLabel connectionStatusLabel = new JLabel("连接状态: 未连接");
     private final JLabel versionLabel = new JLabel("数据库版本: 未知");
     private final JLabel privilegeLabel = new JLabel("权限状态: 未验证");
     private final JLabel socksInfoLabel = new JLabel("代理操作: 等待指令");
-    private final JTextArea logArea = new JTextArea();
+    private final LogView logView = new LogView(20000);
 
     private final JButton loginButton = new JButton("验证连接");
     private final JButton startButton = new JButton("启动代理");
     private final JButton stopButton = new JButton("停止代理");
+    private final JButton statsButton = new JButton("运行统计");
+    private final JButton reattachButton = new JButton("接管代理");
+    private final JButton configButton = new JButton("应用配置");
+    private final JButton probeButton = new JButton("探测");
 
     private SocksInjector injector;
+    private volatile MetricsExporter metricsExporter;
+    private volatile MuxFrontend muxFrontend;
+    private volatile PooledFrontend pooledFrontend;
     private volatile boolean isConnected = false;
 
     public MainFrame() {
@@ -116,9 +140,40 @@ public class MainFrame extends JFrame {
         gbc.gridx = 2;
         panel.add(proxyPortField, gbc);
 
+        addProxyField(panel, gbc, "代理引擎:", engineCombo, 1);
+        addProxyField(panel, gbc, "最大会话数:", maxSessionsField, 2);
+        addProxyField(panel, gbc, "Accept队列:", backlogField, 3);
+        addProxyField(panel, gbc, "等待队列:", queueSizeField, 4);
+        addProxyField(panel, gbc, "指标端口(0关闭):", metricsPortField, 5);
+        addProxyField(panel, gbc, "本地复用端口(0关闭):", muxPortField, 6);
+        addProxyField(panel, gbc, "本地预连接端口(0关闭):", poolPortField, 7);
+        addProxyField(panel, gbc, "预连接数:", poolSizeField, 8);
+        addProxyField(panel, gbc, "限速(global=10m,flow=2m):", shapingField, 9);
+        addProxyField(panel, gbc, "", compressCheckBox, 10);
+        addProxyField(panel, gbc, "超时(handshake=10s,idle=10m):", timeoutsField, 11);
+        addProxyField(panel, gbc, "接收缓冲(字节,0默认):", receiveBufferField, 12);
+        addProxyField(panel, gbc, "发送缓冲(字节,0默认):", sendBufferField, 13);
+        JPanel socketOptions = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+        socketOptions.setOpaque(false);
+        noDelayCheckBox.setOpaque(false);
+        keepAliveCheckBox.setOpaque(false);
+        socketOptions.add(noDelayCheckBox);
+        socketOptions.add(keepAliveCheckBox);
+        addProxyField(panel, gbc, "", socketOptions, 14);
+        addProxyField(panel, gbc, "探测目标(host:port[/path]):", probeTargetField, 15);
+        addProxyField(panel, gbc, "探测并发数:", probeConcurrencyField, 16);
+
         return panel;
     }
 
+    private void addProxyField(JPanel panel, GridBagConstraints gbc, String label, JComponent field, int row) {
+        gbc.gridx = 0;
+        gbc.gridy = row;
+        panel.add(new JLabel(label), gbc);
+        gbc.gridx = 2;
+        panel.add(field, gbc);
+    }
+
     private JPanel createStatusPanel() {
         JPanel panel = new JPanel(new GridLayout(4, 1, 0, 8));
         panel.setBackground(BACKGROUND_COLOR);
@@ -136,15 +191,23 @@ public class MainFrame extends JFrame {
         styleButton(loginButton, PRIMARY_COLOR);
         styleButton(startButton, SUCCESS_COLOR);
         styleButton(stopButton, ERROR_COLOR);
+        styleButton(statsButton, PRIMARY_COLOR);
+        styleButton(reattachButton, PRIMARY_COLOR);
+        styleButton(configButton, WARNING_COLOR);
+        styleButton(probeButton, PRIMARY_COLOR);
 
         // 初始状态设置
         stopButton.setEnabled(true);  // 始终启用停止按钮
         startButton.setEnabled(false);
-        proxyPortField.setEnabled(false);
+        setProxyFieldsEnabled(false);
 
         panel.add(loginButton);
         panel.add(startButton);
         panel.add(stopButton);
+        panel.add(statsButton);
+        panel.add(reattachButton);
+        panel.add(configButton);
+        panel.add(probeButton);
         return panel;
     }
 
@@ -153,17 +216,9 @@ public class MainFrame extends JFrame {
         panel.setBackground(BACKGROUND_COLOR);
         panel.setBorder(createTitledBorder("操作日志"));
 
-        logArea.setEditable(false);
-        logArea.setFont(new Font("微软雅黑", Font.PLAIN, 14));
-        logArea.setBackground(new Color(250, 250, 250));
-        logArea.setBorder(BorderFactory.createCompoundBorder(
-                BorderFactory.createLineBorder(new Color(230, 230, 230)),
-                new EmptyBorder(10, 15, 10, 15)
-        ));
-
-        JScrollPane scrollPane = new JScrollPane(logArea);
-        scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
-        panel.add(scrollPane, BorderLayout.CENTER);
+        logView.setFont(new Font("微软雅黑", Font.PLAIN, 14));
+        logView.setBackground(BACKGROUND_COLOR);
+        panel.add(logView, BorderLayout.CENTER);
 
         return panel;
     }
@@ -172,6 +227,10 @@ public class MainFrame extends JFrame {
         loginButton.addActionListener(e -> handleLogin());
         startButton.addActionListener(e -> handleStartProxy());
         stopButton.addActionListener(e -> handleStopProxy());
+        statsButton.addActionListener(e -> handleShowStats());
+        reattachButton.addActionListener(e -> handleReattach());
+        configButton.addActionListener(e -> handleApplyConfig());
+        probeButton.addActionListener(e -> handleProbe());
     }
 
     private void handleLogin() {
@@ -199,7 +258,11 @@ public class MainFrame extends JFrame {
 
                     dbVersion = injector.getOracleVersion();
                     hasPrivilege = injector.checkDBAPrivilege();
-                    publish("连接验证成功");
+                    Long loginMs = injector.getLoginMillis();
+                    publish("连接验证成功, 连接方式: " + ("service".equals(injector.getConnectForm()) ? "服务名" : "SID")
+                            + (injector.isProfileHit() ? " (取自连接缓存)" : " (并行探测)")
+                            + ", 驱动 " + injector.getDriverName()
+                            + (loginMs != null ? ", 登录耗时 " + loginMs + " ms" : ""));
                     return true;
                 } catch (Exception ex) {
                     publish("错误: " + ex.getMessage());
@@ -223,7 +286,7 @@ public class MainFrame extends JFrame {
                         isConnected = true;
                         updateStatus("已连接", SUCCESS_COLOR);
                         startButton.setEnabled(true);
-                        proxyPortField.setEnabled(true);
+                        setProxyFieldsEnabled(true);
                         showMessage("数据库连接成功！", "成功", JOptionPane.INFORMATION_MESSAGE);
                     } else {
                         updateStatus("连接失败", ERROR_COLOR);
@@ -247,11 +310,21 @@ public class MainFrame extends JFrame {
             protected Boolean doInBackground() {
                 try {
                     int proxyPort = Integer.parseInt(proxyPortField.getText().trim());
-                    injector.inject(proxyPort);
-                    publish("代理端口 " + proxyPort + " 启动请求已发送");
+                    ProxyConfig config = buildProxyConfig();
+                    // inject 会阻塞到监听结束, 指标服务需先行启动
+                    startMetricsExporter(Integer.parseInt(metricsPortField.getText().trim()));
+                    startMuxFrontend(Integer.parseInt(muxPortField.getText().trim()), proxyPort);
+                    startPooledFrontend(Integer.parseInt(poolPortField.getText().trim()), proxyPort,
+                            Integer.parseInt(poolSizeField.getText().trim()));
+                    injector.inject(proxyPort, config);
+                    publish("代理端口 " + proxyPort + " (" + config.getEngine().toUpperCase() + ") 启动请求已发送");
                     return true;
                 } catch (Exception ex) {
                     publish("启动失败: " + ex.getMessage());
+                    // 已启动的本机服务随之停止, 释放端口
+                    stopMetricsExporter();
+                    stopMuxFrontend();
+                    stopPooledFrontend();
                     return false;
                 }
             }
@@ -285,9 +358,11 @@ public class MainFrame extends JFrame {
             @Override
             protected Void doInBackground() {
                 try {
+                    stopMetricsExporter();
+                    stopMuxFrontend();
+                    stopPooledFrontend();
                     if (injector != null) {
-                        injector.stop();
-                        appendLog("停止指令已执行");
+                        appendLog(injector.stop() ? "代理已停止, 监听端口已关闭" : "代理未在运行或停止失败");
                     } else {
                         appendLog("代理实例不存在");
                     }
@@ -304,6 +379,283 @@ public class MainFrame extends JFrame {
         }.execute();
     }
 
+    // 工具重启后接管库内仍在运行的代理, 代理端口填 0 时取最近启动的一个; 本机前端与指标服务按当前配置重新启动
+    private void handleReattach() {
+        if (injector == null) {
+            appendLog("请先验证数据库连接");
+            return;
+        }
+        String portText = proxyPortField.getText().trim();
+        reattachButton.setEnabled(false);
+        new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() throws Exception {
+                Map<String, Long> m = injector.reattach(portText.isEmpty() ? 0 : Integer.parseInt(portText));
+                int proxyPort = injector.getProxyPort();
+                appendLog(String.format("已接管端口 %d 上运行中的代理 (会话 %s, 耗时 %d ms): 活动连接 %d, 累计接入 %d",
+                        proxyPort, injector.getListenerSession(), injector.getPhaseTimings().get("重新接管"),
+                        m.get("active"), m.get("accepted")));
+                startMetricsExporter(Integer.parseInt(metricsPortField.getText().trim()));
+                startMuxFrontend(Integer.parseInt(muxPortField.getText().trim()), proxyPort);
+                startPooledFrontend(Integer.parseInt(poolPortField.getText().trim()), proxyPort,
+                        Integer.parseInt(poolSizeField.getText().trim()));
+                return proxyPort;
+            }
+
+            @Override
+            protected void done() {
+                reattachButton.setEnabled(true);
+                try {
+                    proxyPortField.setText(String.valueOf(get()));
+                    updateSocksInfo("已接管运行中的代理", SUCCESS_COLOR);
+                } catch (Exception ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    appendLog("接管失败: " + cause.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    private void handleShowStats() {
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                try {
+                    if (injector == null) {
+                        appendLog("代理实例不存在");
+                        return null;
+                    }
+                    Map<String, Long> phases = injector.getPhaseTimings();
+                    if (!phases.isEmpty()) {
+                        appendLog("启动阶段耗时(ms): " + phases + ", 往返次数: " + injector.getPhaseRoundTrips());
+                    }
+                    Map<String, Long> m = injector.getMetrics();
+                    long handshakes = m.get("handshakes");
+                    appendLog(String.format("连接: 活动 %d, 接入 %d, 拒绝 %d; 流量: 上行 %d 字节, 下行 %d 字节",
+                            m.get("active"), m.get("accepted"), m.get("rejected"), m.get("bytes_in"), m.get("bytes_out")));
+                    appendLog(String.format("握手: 成功 %d, 失败 %d, 平均 %.2f ms",
+                            handshakes, m.get("handshake_failures"),
+                            handshakes == 0 ? 0.0 : m.get("handshake_us") / 1000.0 / handshakes));
+                    appendLog(String.format("DNS缓存: 命中 %d, 负缓存命中 %d, 未命中 %d, 合并查询 %d, 失败 %d, 超时 %d, 条目 %d, 查询耗时 %d ms",
+                            m.get("dns_hits"), m.get("dns_negative_hits"), m.get("dns_misses"), m.get("dns_coalesced"),
+                            m.get("dns_failures"), m.get("dns_timeouts"), m.get("dns_size"), m.get("dns_us") / 1000));
+                    MuxFrontend frontend = muxFrontend;
+                    if (frontend != null) {
+                        int[] mux = frontend.getStats();
+                        appendLog(String.format("多路复用: 本地隧道 %d, 本地活动流 %d; 库内隧道 %d, 活动流 %d, 累计流 %d",
+                                mux[0], mux[1], m.get("mux_tunnels"), m.get("mux_active"), m.get("mux_streams")));
+                        long[] z = frontend.getCompressionStats();
+                        if (z != null) {
+                            appendLog(String.format("压缩: 上行 %s, 下行 %s, 退避跳过 %d 块; 本机压缩 %d ms/解压 %d ms, 库内压缩 %d ms/解压 %d ms",
+                                    ratio(z[0], z[1]), ratio(m.get("z_out_raw"), m.get("z_out_wire")), z[4] + m.get("z_skipped"),
+                                    z[5] / 1000, z[6] / 1000, m.get("z_deflate_us") / 1000, m.get("z_inflate_us") / 1000));
+                        }
+                    }
+                    PooledFrontend pool = pooledFrontend;
+                    if (pool != null) {
+                        long[] p = pool.getStats();
+                        appendLog(String.format("预连接: 空闲 %d, 命中 %d, 未命中 %d, 失效重连 %d, 命中率 %.1f%%",
+                                p[0], p[1], p[2], p[3], pool.getHitRate() * 100));
+                    }
+                    if (m.get("shape_global") > 0 || m.get("shape_flow") > 0) {
+                        logShaping(m);
+                    }
+                    appendLog(String.format("超时回收: 握手 %d, 建连 %d, 空闲 %d, 半关闭 %d; 半关闭传递 %d 次, 受监视连接 %d",
+                            m.get("reaped_handshake"), m.get("reaped_connect"), m.get("reaped_idle"), m.get("reaped_half"),
+                            m.get("half_closes"), m.get("watched")));
+                } catch (Exception ex) {
+                    appendLog("获取统计失败: " + ex.getMessage());
+                }
+                return null;
+            }
+        }.execute();
+    }
+
+    private ProxyConfig buildProxyConfig() {
+        return new ProxyConfig()
+                .setEngine(engineCombo.getSelectedItem().toString().toLowerCase())
+                .setMaxSessions(Integer.parseInt(maxSessionsField.getText().trim()))
+                .setBacklog(Integer.parseInt(backlogField.getText().trim()))
+                .setQueueSize(Integer.parseInt(queueSizeField.getText().trim()))
+                .setShaping(shapingField.getText().trim().isEmpty() ? null : shapingField.getText().trim())
+                .setTimeouts(timeoutsField.getText().trim().isEmpty() ? null : timeoutsField.getText().trim())
+                .setTcpNoDelay(noDelayCheckBox.isSelected())
+                .setKeepAlive(keepAliveCheckBox.isSelected())
+                .setReceiveBuffer(Integer.parseInt(receiveBufferField.getText().trim()))
+                .setSendBuffer(Integer.parseInt(sendBufferField.getText().trim()));
+    }
+
+    // 运行中按当前输入调整会话上限、套接字参数、超时与限速 (限速输入 off 取消); 引擎与队列长度需重启代理
+    private void handleApplyConfig() {
+        if (injector == null) {
+            appendLog("代理实例不存在");
+            return;
+        }
+        String options;
+        try {
+            options = buildProxyConfig().toRuntimeOptions();
+        } catch (NumberFormatException ex) {
+            showMessage("会话数与缓冲区大小需为整数", "输入错误", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                try {
+                    Map<String, Long> m = injector.reconfigure(options);
+                    appendLog(String.format("配置已应用: 会话上限 %d, TCP_NODELAY %s, SO_KEEPALIVE %s, 接收缓冲 %s, 发送缓冲 %s",
+                            m.get("opt_sessions"), onOff(m.get("opt_nodelay")), onOff(m.get("opt_keepalive")),
+                            bufferSize(m.get("opt_rcvbuf")), bufferSize(m.get("opt_sndbuf"))));
+                    appendLog(String.format("超时: 握手 %d ms, 建连 %d ms, 空闲 %d ms, 半关闭 %d ms",
+                            m.get("timeout_handshake_ms"), m.get("timeout_connect_ms"), m.get("timeout_idle_ms"),
+                            m.get("timeout_half_ms")));
+                    logShaping(m);
+                } catch (Exception ex) {
+                    appendLog("应用配置失败: " + ex.getMessage());
+                }
+                return null;
+            }
+        }.execute();
+    }
+
+    private static String onOff(long v) {
+        return v != 0 ? "开" : "关";
+    }
+
+    private static String bufferSize(long v) {
+        return v > 0 ? v / 1024 + " KB" : "系统默认";
+    }
+
+    // 经代理端口并发连接探测目标, 每个并发连接依次完成 4 次探测
+    private void handleProbe() {
+        String target = probeTargetField.getText().trim();
+        if (target.isEmpty()) {
+            showMessage("请输入探测目标, 如 www.example.com:80/ 或 10.0.0.5:22", "提示", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        if (injector == null) {
+            appendLog("代理实例不存在");
+            return;
+        }
+        int concurrency;
+        int proxyPort;
+        try {
+            concurrency = Integer.parseInt(probeConcurrencyField.getText().trim());
+            proxyPort = Integer.parseInt(proxyPortField.getText().trim());
+        } catch (NumberFormatException ex) {
+            showMessage("代理端口与探测并发数需为整数", "输入错误", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        ProxyProbe probe;
+        try {
+            probe = ProxyProbe.forTarget(injector.getHost(), proxyPort, target)
+                    .setConcurrency(concurrency)
+                    .setConnections(concurrency * 4);
+        } catch (IllegalArgumentException ex) {
+            showMessage(ex.getMessage(), "输入错误", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        probeButton.setEnabled(false);
+        appendLog("开始探测 " + target + ", 并发 " + concurrency + "...");
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                try {
+                    ProxyProbe.Result r = probe.run();
+                    appendLog(String.format("探测完成: 成功 %d/%d, 用时 %d ms", r.getSucceeded(), r.getAttempts(), r.getElapsedMs()));
+                    if (!r.getFailures().isEmpty()) {
+                        appendLog("失败阶段: " + r.getFailures() + ", 首个错误: " + r.getFirstError());
+                    }
+                    appendLog("问候: " + r.greeting);
+                    appendLog("CONNECT: " + r.connect);
+                    appendLog("首字节: " + r.firstByte);
+                    appendLog(String.format("吞吐: %d KB/s (共 %d KB)", r.getBytesPerSecond() / 1024, r.getBytes() / 1024));
+                } catch (Exception ex) {
+                    appendLog("探测失败: " + ex.getMessage());
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                probeButton.setEnabled(true);
+            }
+        }.execute();
+    }
+
+    private static String ratio(long raw, long wire) {
+        return String.format("%d KB -> %d KB (%.1f%%)", raw / 1024, wire / 1024, raw == 0 ? 100.0 : wire * 100.0 / raw);
+    }
+
+    private void logShaping(Map<String, Long> m) {
+        appendLog(String.format("限速: 全局 %d KB/s, 单连接 %d KB/s, 突发 %d KB; 整形中连接 %d, 排队 %d, 等待次数 %d",
+                m.get("shape_global") / 1024, m.get("shape_flow") / 1024, m.get("shape_burst") / 1024,
+                m.get("shape_flows"), m.get("shape_backlog"), m.get("shape_waits")));
+    }
+
+    private void startMetricsExporter(int metricsPort) throws IOException {
+        stopMetricsExporter();
+        if (metricsPort <= 0) {
+            return;
+        }
+        MetricsExporter exporter = new MetricsExporter(injector, metricsPort, 5000);
+        exporter.start();
+        metricsExporter = exporter;
+        appendLog("指标服务已启动: http://127.0.0.1:" + metricsPort + "/metrics");
+    }
+
+    // 本机复用端口的连接经少量隧道送往库内代理, 隧道在首个连接到来时才建立
+    private void startMuxFrontend(int localPort, int proxyPort) throws IOException {
+        stopMuxFrontend();
+        if (localPort <= 0) {
+            return;
+        }
+        boolean compress = compressCheckBox.isSelected();
+        MuxFrontend frontend = new MuxFrontend(injector.getHost(), proxyPort, localPort, 4, compress);
+        frontend.start();
+        muxFrontend = frontend;
+        appendLog("多路复用前端已启动: socks5://127.0.0.1:" + localPort + (compress ? " (压缩传输)" : ""));
+    }
+
+    private void stopMuxFrontend() {
+        MuxFrontend frontend = muxFrontend;
+        muxFrontend = null;
+        if (frontend != null) {
+            frontend.stop();
+            appendLog("多路复用前端已停止");
+        }
+    }
+
+    // 预连接在启动后即开始建立, 代理尚未监听时补充线程会每秒重试
+    private void startPooledFrontend(int localPort, int proxyPort, int poolSize) throws IOException {
+        stopPooledFrontend();
+        if (localPort <= 0) {
+            return;
+        }
+        PooledFrontend frontend = new PooledFrontend(injector.getHost(), proxyPort, localPort, poolSize);
+        frontend.start();
+        pooledFrontend = frontend;
+        appendLog("预连接前端已启动: socks5://127.0.0.1:" + localPort + ", 预连接数 " + poolSize);
+    }
+
+    private void stopPooledFrontend() {
+        PooledFrontend frontend = pooledFrontend;
+        pooledFrontend = null;
+        if (frontend != null) {
+            frontend.stop();
+            appendLog("预连接前端已停止");
+        }
+    }
+
+    private void stopMetricsExporter() {
+        MetricsExporter exporter = metricsExporter;
+        metricsExporter = null;
+        if (exporter != null) {
+            exporter.stop();
+            appendLog("指标服务已停止");
+        }
+    }
+
     // UI样式方法
     private JTextField createStyledTextField(String defaultValue) {
         JTextField field = new JTextField(defaultValue, 20);
@@ -389,9 +741,12 @@ public class MainFrame extends JFrame {
         Font chineseFont = new Font("微软雅黑", Font.PLAIN, 14);
         setComponentFont(chineseFont,
                 dbHostField, dbPortField, dbServiceField, dbUserField, dbPasswordField,
-                sysdbaCheckBox, serviceTypeCombo, proxyPortField, connectionStatusLabel,
-                versionLabel, privilegeLabel, socksInfoLabel, logArea, loginButton,
-                startButton, stopButton
+                sysdbaCheckBox, serviceTypeCombo, proxyPortField, engineCombo, maxSessionsField,
+                backlogField, queueSizeField, metricsPortField, muxPortField, poolPortField,
+                poolSizeField, shapingField, compressCheckBox, timeoutsField, receiveBufferField, sendBufferField,
+                noDelayCheckBox, keepAliveCheckBox, probeTargetField, probeConcurrencyField, connectionStatusLabel,
+                versionLabel, privilegeLabel, socksInfoLabel, logView, loginButton,
+                startButton, stopButton, statsButton, reattachButton, configButton, probeButton
         );
     }
 
@@ -407,25 +762,37 @@ public class MainFrame extends JFrame {
         SwingUtilities.invokeLater(() -> {
             startButton.setEnabled(isConnected);
             stopButton.setEnabled(true); // 始终启用停止按钮
-            proxyPortField.setEnabled(isConnected);
+            setProxyFieldsEnabled(isConnected);
             loginButton.setEnabled(!isConnected);
         });
     }
 
+    private void setProxyFieldsEnabled(boolean enabled) {
+        proxyPortField.setEnabled(enabled);
+        engineCombo.setEnabled(enabled);
+        maxSessionsField.setEnabled(enabled);
+        backlogField.setEnabled(enabled);
+        queueSizeField.setEnabled(enabled);
+        metricsPortField.setEnabled(enabled);
+        muxPortField.setEnabled(enabled);
+        poolPortField.setEnabled(enabled);
+        poolSizeField.setEnabled(enabled);
+        shapingField.setEnabled(enabled);
+        compressCheckBox.setEnabled(enabled);
+        timeoutsField.setEnabled(enabled);
+        receiveBufferField.setEnabled(enabled);
+        sendBufferField.setEnabled(enabled);
+        noDelayCheckBox.setEnabled(enabled);
+        keepAliveCheckBox.setEnabled(enabled);
+    }
+
+    // 任意线程可调用, 由日志视图按帧合并刷新
     private void appendLog(String message) {
-        String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
-        SwingUtilities.invokeLater(() -> {
-            try {
-                logArea.append(timestamp + " " + message + "\n");
-                logArea.setCaretPosition(logArea.getDocument().getLength());
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
+        logView.append(message);
     }
 
     private void clearLog() {
-        SwingUtilities.invokeLater(() -> logArea.setText(""));
+        logView.clear();
     }
 
     private void validateConnectionInputs() throws IllegalArgumentException {
@@ -0,0 +1,172 @@
+package com.demo;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// 定时经控制连接拉取库内计数, 以 Prometheus 文本格式在本机端口提供 /metrics
+public class MetricsExporter {
+    private static final String PREFIX = "oracle_socks5_";
+    private static final String HS_BUCKET = "hs_le_";
+
+    private final SocksInjector injector;
+    private final int port;
+    private final long intervalMs;
+    private HttpServer server;
+    private ScheduledExecutorService poller;
+    private volatile Map<String, Long> latest = Collections.emptyMap();
+    private volatile boolean up;
+    private volatile String lastError;
+
+    public MetricsExporter(SocksInjector injector, int port, long intervalMs) {
+        this.injector = injector;
+        this.port = port;
+        this.intervalMs = intervalMs;
+    }
+
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        // 抓取请求只读缓存的快照, 不直接访问数据库
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Metrics-Poller");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(this::poll, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+            poller = null;
+        }
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        up = false;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    private void poll() {
+        try {
+            latest = injector.getMetrics();
+            up = true;
+            lastError = null;
+        } catch (Exception e) {
+            up = false;
+            lastError = e.getMessage();
+        }
+    }
+
+    String render() {
+        Map<String, Long> m = latest;
+        StringBuilder sb = new StringBuilder(2048);
+        gauge(sb, "up", "代理监听是否可查询", up ? 1 : 0);
+        if (m.isEmpty()) {
+            return sb.toString();
+        }
+        gauge(sb, "uptime_seconds", "监听运行时长", scaled(m.get("uptime_ms"), 1e3));
+        gauge(sb, "active_connections", "当前活动连接数", m.get("active"));
+        counter(sb, "accepted_connections_total", "累计接入连接数", m.get("accepted"));
+        counter(sb, "rejected_connections_total", "准入控制拒绝的连接数", m.get("rejected"));
+        counter(sb, "received_bytes_total", "客户端发往目标的字节数", m.get("bytes_in"));
+        counter(sb, "sent_bytes_total", "目标返回客户端的字节数", m.get("bytes_out"));
+        counter(sb, "handshake_failures_total", "以错误应答结束的握手数", m.get("handshake_failures"));
+
+        String name = PREFIX + "handshake_duration_seconds";
+        sb.append("# HELP ").append(name).append(" 从 accept 到成功应答的耗时\n");
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        for (Map.Entry<String, Long> e : m.entrySet()) {
+            if (e.getKey().startsWith(HS_BUCKET)) {
+                String bound = e.getKey().substring(HS_BUCKET.length());
+                String le = "inf".equals(bound) ? "+Inf" : String.valueOf(Long.parseLong(bound) / 1000.0);
+                sb.append(name).append("_bucket{le=\"").append(le).append("\"} ").append(e.getValue()).append('\n');
+            }
+        }
+        sb.append(name).append("_sum ").append(scaled(m.get("handshake_us"), 1e6)).append('\n');
+        sb.append(name).append("_count ").append(m.get("handshakes")).append('\n');
+
+        gauge(sb, "mux_tunnels", "多路复用隧道数", m.get("mux_tunnels"));
+        gauge(sb, "mux_active_streams", "多路复用活动流数", m.get("mux_active"));
+        counter(sb, "mux_streams_total", "经多路复用打开的流数", m.get("mux_streams"));
+        gauge(sb, "shape_global_bytes_per_second", "全局限速, 0 为不限", m.get("shape_global"));
+        gauge(sb, "shape_flow_bytes_per_second", "单连接限速, 0 为不限", m.get("shape_flow"));
+        gauge(sb, "shape_backlog", "等待整形额度的连接数", m.get("shape_backlog"));
+        counter(sb, "shape_waits_total", "整形额度不足的次数", m.get("shape_waits"));
+        counter(sb, "reaped_handshake_total", "握手超时回收的连接数", m.get("reaped_handshake"));
+        counter(sb, "reaped_connect_total", "建连超时的连接数", m.get("reaped_connect"));
+        counter(sb, "reaped_idle_total", "空闲超时回收的连接数", m.get("reaped_idle"));
+        counter(sb, "reaped_half_close_total", "半关闭后超时回收的连接数", m.get("reaped_half"));
+        counter(sb, "half_closes_total", "向对端传递的半关闭次数", m.get("half_closes"));
+        gauge(sb, "watched_connections", "受超时监视的阻塞模式连接数", m.get("watched"));
+        counter(sb, "mux_deflate_raw_bytes_total", "多路复用下行压缩前字节数", m.get("z_out_raw"));
+        counter(sb, "mux_deflate_wire_bytes_total", "多路复用下行实际发送字节数", m.get("z_out_wire"));
+        counter(sb, "mux_inflate_wire_bytes_total", "多路复用上行收到的压缩字节数", m.get("z_in_wire"));
+        counter(sb, "mux_inflate_raw_bytes_total", "多路复用上行解压后字节数", m.get("z_in_raw"));
+        counter(sb, "mux_deflate_seconds_total", "库内压缩累计耗时", scaled(m.get("z_deflate_us"), 1e6));
+        counter(sb, "mux_inflate_seconds_total", "库内解压累计耗时", scaled(m.get("z_inflate_us"), 1e6));
+
+        counter(sb, "dns_lookups_total", "实际发起的 DNS 查询数", m.get("dns_lookups"));
+        counter(sb, "dns_lookup_seconds_total", "DNS 查询累计耗时", scaled(m.get("dns_us"), 1e6));
+        counter(sb, "dns_cache_hits_total", "DNS 正缓存命中", m.get("dns_hits"));
+        counter(sb, "dns_cache_negative_hits_total", "DNS 负缓存命中", m.get("dns_negative_hits"));
+        counter(sb, "dns_cache_misses_total", "DNS 缓存未命中", m.get("dns_misses"));
+        counter(sb, "dns_coalesced_total", "合并到进行中查询的请求数", m.get("dns_coalesced"));
+        counter(sb, "dns_failures_total", "DNS 解析失败数", m.get("dns_failures"));
+        counter(sb, "dns_timeouts_total", "DNS 等待超时数", m.get("dns_timeouts"));
+        gauge(sb, "dns_cache_entries", "DNS 缓存条目数", m.get("dns_size"));
+        return sb.toString();
+    }
+
+    private static Double scaled(Long value, double divisor) {
+        return value == null ? null : value / divisor;
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, Number value) {
+        metric(sb, name, help, "gauge", value);
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, Number value) {
+        metric(sb, name, help, "counter", value);
+    }
+
+    // 旧版本监听缺少的计数直接省略
+    private static void metric(StringBuilder sb, String name, String help, String type, Number value) {
+        if (value == null) {
+            return;
+        }
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+        sb.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+}
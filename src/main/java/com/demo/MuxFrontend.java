@@ -0,0 +1,151 @@
+package com.demo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+
+// 多路复用前端: 本机 SOCKS 连接不再各自连到数据库, 而是作为逻辑流分摊到少量长连接隧道上,
+// 省去每个连接的 TCP 建连、远端握手与库内线程
+public class MuxFrontend extends LocalSocksServer {
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int OPEN_TIMEOUT_MS = 15000;
+
+    private final String proxyHost;
+    private final int proxyPort;
+    private final MuxTunnel[] tunnels;
+    // 正在建连的空位, 建连在锁外进行, 其它连接照常使用已有隧道
+    private final boolean[] connecting;
+    private final BlockCompressor codec;
+
+    public MuxFrontend(String proxyHost, int proxyPort, int localPort, int tunnelCount) {
+        this(proxyHost, proxyPort, localPort, tunnelCount, false);
+    }
+
+    // compress 为 true 时隧道上的数据按块 deflate, 适合慢速链路上的文本类流量
+    public MuxFrontend(String proxyHost, int proxyPort, int localPort, int tunnelCount, boolean compress) {
+        super(localPort, "Mux-Client");
+        this.proxyHost = proxyHost;
+        this.proxyPort = proxyPort;
+        this.tunnels = new MuxTunnel[Math.max(1, tunnelCount)];
+        this.connecting = new boolean[tunnels.length];
+        this.codec = compress ? new BlockCompressor() : null;
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        synchronized (tunnels) {
+            for (int i = 0; i < tunnels.length; i++) {
+                if (tunnels[i] != null) {
+                    tunnels[i].close();
+                    tunnels[i] = null;
+                }
+            }
+        }
+    }
+
+    // 已建立的隧道数与其上的活动流数
+    public int[] getStats() {
+        int open = 0;
+        int streams = 0;
+        synchronized (tunnels) {
+            for (MuxTunnel t : tunnels) {
+                if (t != null && t.isOpen()) {
+                    open++;
+                    streams += t.streamCount();
+                }
+            }
+        }
+        return new int[]{open, streams};
+    }
+
+    // 未开启压缩时返回 null, 否则见 BlockCompressor.getStats
+    public long[] getCompressionStats() {
+        return codec == null ? null : codec.getStats();
+    }
+
+    @Override
+    protected void relay(Socket client, byte[] request) throws IOException {
+        MuxTunnel.Stream stream;
+        try {
+            stream = pickTunnel().open(request, client, OPEN_TIMEOUT_MS);
+        } catch (IOException e) {
+            client.getOutputStream().write(failure(0x01));
+            return;
+        }
+        if (!stream.succeeded()) {
+            return;
+        }
+        byte[] buf = new byte[MuxTunnel.FRAME];
+        InputStream in = client.getInputStream();
+        try {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                stream.write(buf, 0, n);
+            }
+            stream.finish();
+            stream.awaitClosed();
+        } catch (IOException e) {
+            stream.reset();
+        }
+    }
+
+    // 选活动流最少的隧道; 仍有空位且现有隧道都在用时新建一条, 断开的隧道在此处被替换.
+    // 锁内只占用空位, 建连 (最长 CONNECT_TIMEOUT_MS) 在锁外完成后再发布
+    private MuxTunnel pickTunnel() throws IOException {
+        MuxTunnel best;
+        int free;
+        synchronized (tunnels) {
+            while (true) {
+                best = null;
+                free = -1;
+                for (int i = 0; i < tunnels.length; i++) {
+                    MuxTunnel t = tunnels[i];
+                    if (connecting[i]) {
+                        continue;
+                    }
+                    if (t == null || !t.isOpen()) {
+                        tunnels[i] = null;
+                        free = free < 0 ? i : free;
+                    } else if (best == null || t.streamCount() < best.streamCount()) {
+                        best = t;
+                    }
+                }
+                if (free >= 0 && (best == null || best.streamCount() > 0)) {
+                    connecting[free] = true;
+                    break;
+                }
+                if (best != null) {
+                    return best;
+                }
+                // 空位都在建连中且还没有可用隧道, 等其中一条建成
+                try {
+                    tunnels.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("等待隧道建立时被中断");
+                }
+            }
+        }
+        MuxTunnel created = null;
+        try {
+            created = new MuxTunnel(proxyHost, proxyPort, CONNECT_TIMEOUT_MS, codec);
+        } catch (IOException e) {
+            if (best == null) {
+                throw e;
+            }
+        } finally {
+            synchronized (tunnels) {
+                connecting[free] = false;
+                // 建连期间前端已停止时不再发布
+                if (created != null && !isRunning()) {
+                    created.close();
+                    created = null;
+                }
+                tunnels[free] = created;
+                tunnels.notifyAll();
+            }
+        }
+        return created != null ? created : best;
+    }
+}
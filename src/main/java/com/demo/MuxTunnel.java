@@ -0,0 +1,405 @@
+package com.demo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+// 到库内代理的一条多路复用长连接, 帧格式与流控参数须与 OracleSocks5Proxy 的 MUX_* 常量一致
+class MuxTunnel {
+    static final int MAGIC = 0xC6;
+    static final int VERSION = 1;
+    static final int VERSION_DEFLATE = 2;
+    static final int OPEN = 1, REPLY = 2, DATA = 3, CREDIT = 4, FIN = 5, RST = 6, ZDATA = 7;
+    static final int FRAME = 16 * 1024;
+    static final int WINDOW = 256 * 1024;
+    // 写回本机客户端的线程, 读线程只负责入队, 一个慢客户端不会拖住同隧道的其它流
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Mux-Writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final byte[] EOF = new byte[0];
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    // 为 null 时不压缩; 压缩须代理同样支持版本 2
+    private final BlockCompressor codec;
+    private volatile boolean closed;
+
+    MuxTunnel(String host, int port, int timeoutMs, BlockCompressor codec) throws IOException {
+        this.codec = codec;
+        int version = codec != null ? VERSION_DEFLATE : VERSION;
+        socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            out.write(MAGIC);
+            out.write(version);
+            out.flush();
+            socket.setSoTimeout(timeoutMs);
+            if (in.read() != MAGIC || in.read() != version) {
+                throw new IOException(codec != null ? "库内代理不支持压缩传输, 请重新启动代理"
+                        : "库内代理不支持多路复用, 请重新启动代理");
+            }
+            socket.setSoTimeout(0);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        Thread reader = new Thread(this::readLoop, "Mux-Reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    boolean isOpen() {
+        return !closed;
+    }
+
+    int streamCount() {
+        return streams.size();
+    }
+
+    // 发送 OPEN 并等待代理应答; 应答 (成功或失败) 由读线程先行写回客户端, 保证先于任何数据
+    Stream open(byte[] request, Socket client, int timeoutMs) throws IOException {
+        int id = nextId.incrementAndGet();
+        Stream s = new Stream(id, client);
+        streams.put(id, s);
+        try {
+            send(OPEN, id, request, 0, request.length);
+            if (!s.awaitReply(timeoutMs)) {
+                throw new SocketTimeoutException("等待代理应答超时");
+            }
+        } catch (IOException e) {
+            streams.remove(id);
+            throw e;
+        }
+        return s;
+    }
+
+    void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        for (Stream s : streams.values()) {
+            s.terminate();
+        }
+        streams.clear();
+    }
+
+    private void send(int type, int id, byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("隧道已关闭");
+        }
+        try {
+            synchronized (out) {
+                out.write(type);
+                out.writeInt(id);
+                out.writeInt(len);
+                out.write(b, off, len);
+                out.flush();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void sendQuietly(int type, int id, byte[] b) {
+        try {
+            send(type, id, b, 0, b.length);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void readLoop() {
+        byte[] buf = new byte[FRAME];
+        byte[] plain = codec != null ? new byte[FRAME] : null;
+        Inflater inflater = codec != null ? new Inflater(true) : null;
+        try {
+            while (!closed) {
+                int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+                int id = in.readInt();
+                int len = in.readInt();
+                if (len < 0 || len > buf.length) {
+                    throw new IOException("帧长度异常: " + len);
+                }
+                in.readFully(buf, 0, len);
+                Stream s = streams.get(id);
+                if (s == null) {
+                    continue;
+                }
+                switch (type) {
+                    case REPLY:
+                        s.onReply(buf, len);
+                        break;
+                    case DATA:
+                        s.onData(buf, len);
+                        break;
+                    case ZDATA:
+                        if (inflater == null) {
+                            throw new IOException("未协商压缩却收到压缩帧");
+                        }
+                        s.onData(plain, codec.inflate(inflater, buf, len, plain));
+                        break;
+                    case CREDIT:
+                        s.onCredit(((buf[0] & 0xFF) << 24) | ((buf[1] & 0xFF) << 16) | ((buf[2] & 0xFF) << 8) | (buf[3] & 0xFF));
+                        break;
+                    case FIN:
+                        s.onFin();
+                        break;
+                    case RST:
+                        s.abort();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } catch (IOException ignored) {
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+            close();
+        }
+    }
+
+    final class Stream {
+        private final int id;
+        private final Socket client;
+        private final BlockCompressor.Backoff backoff = new BlockCompressor.Backoff();
+        private byte[] packed;
+        private byte[] reply;
+        private int credit = WINDOW;
+        private int consumed;
+        private boolean closed, remoteDone, localDone;
+        // 待写回客户端的数据, 未归还的额度限制了其总量不超过 WINDOW
+        private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        Stream(int id, Socket client) {
+            this.id = id;
+            this.client = client;
+        }
+
+        synchronized boolean awaitReply(long timeoutMs) throws IOException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            long left;
+            while (reply == null && !closed && (left = deadline - System.currentTimeMillis()) > 0) {
+                waitQuietly(left);
+            }
+            if (reply == null && closed) {
+                throw new IOException("隧道已关闭");
+            }
+            return reply != null;
+        }
+
+        synchronized boolean succeeded() {
+            return reply != null && reply.length > 1 && reply[1] == 0x00;
+        }
+
+        // 客户端 -> 代理, 超出额度时等待对端归还; 额度按压缩前的字节计
+        void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n;
+                synchronized (this) {
+                    while (credit <= 0 && !closed) {
+                        waitQuietly(0);
+                    }
+                    if (closed) {
+                        throw new IOException("流已关闭");
+                    }
+                    n = Math.min(len, Math.min(credit, FRAME));
+                    credit -= n;
+                }
+                int z = 0;
+                if (codec != null) {
+                    if (packed == null) {
+                        packed = new byte[FRAME];
+                    }
+                    z = codec.deflate(backoff, b, off, n, packed);
+                }
+                if (z > 0) {
+                    send(ZDATA, id, packed, 0, z);
+                } else {
+                    send(DATA, id, b, off, n);
+                }
+                off += n;
+                len -= n;
+            }
+        }
+
+        void finish() throws IOException {
+            send(FIN, id, new byte[0], 0, 0);
+            boolean done;
+            synchronized (this) {
+                localDone = true;
+                done = remoteDone;
+            }
+            if (done) {
+                terminate();
+            }
+        }
+
+        void reset() {
+            sendQuietly(RST, id, new byte[0]);
+            terminate();
+        }
+
+        // 代理端重置 (如超时回收): 关闭本机连接, 让阻塞在读客户端上的线程退出
+        private void abort() {
+            terminate();
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        synchronized void awaitClosed() {
+            while (!closed) {
+                waitQuietly(0);
+            }
+        }
+
+        private void onReply(byte[] b, int len) {
+            byte[] r = new byte[len];
+            System.arraycopy(b, 0, r, 0, len);
+            try {
+                client.getOutputStream().write(r);
+            } catch (IOException e) {
+                reset();
+            }
+            synchronized (this) {
+                reply = r;
+                notifyAll();
+            }
+            if (len < 2 || r[1] != 0x00) {
+                terminate();
+            }
+        }
+
+        // 读线程的缓冲区会复用, 先拷贝再交给写线程
+        private void onData(byte[] b, int len) {
+            pending.add(Arrays.copyOf(b, len));
+            schedule();
+        }
+
+        // 对端 FIN 排在已入队的数据之后处理
+        private void onFin() {
+            pending.add(EOF);
+            schedule();
+        }
+
+        private void schedule() {
+            if (draining.compareAndSet(false, true)) {
+                WRITERS.execute(this::drain);
+            }
+        }
+
+        // 同一流同时只有一个写线程, 保证写出顺序; 放开标记后再查一次队列, 避免漏掉刚入队的数据
+        private void drain() {
+            do {
+                byte[] b;
+                while ((b = pending.poll()) != null) {
+                    if (b == EOF) {
+                        finishRemote();
+                    } else {
+                        deliver(b);
+                    }
+                }
+                draining.set(false);
+            } while (!pending.isEmpty() && draining.compareAndSet(false, true));
+        }
+
+        // 写回本机客户端, 写出后归还额度; 流已结束时丢弃
+        private void deliver(byte[] b) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+            }
+            int len = b.length;
+            try {
+                client.getOutputStream().write(b);
+            } catch (IOException e) {
+                reset();
+                return;
+            }
+            int returned;
+            synchronized (this) {
+                consumed += len;
+                if (consumed < WINDOW / 2) {
+                    return;
+                }
+                returned = consumed;
+                consumed = 0;
+            }
+            sendQuietly(CREDIT, id, new byte[]{(byte) (returned >>> 24), (byte) (returned >>> 16),
+                    (byte) (returned >>> 8), (byte) returned});
+        }
+
+        private synchronized void onCredit(int n) {
+            credit += n;
+            notifyAll();
+        }
+
+        private void finishRemote() {
+            try {
+                client.shutdownOutput();
+            } catch (IOException ignored) {
+            }
+            boolean done;
+            synchronized (this) {
+                remoteDone = true;
+                done = localDone;
+            }
+            if (done) {
+                terminate();
+            }
+        }
+
+        private void terminate() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                notifyAll();
+            }
+            streams.remove(id);
+        }
+
+        private void waitQuietly(long ms) {
+            try {
+                wait(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                closed = true;
+            }
+        }
+    }
+}
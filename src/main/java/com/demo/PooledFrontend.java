@@ -0,0 +1,226 @@
+package com.demo;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 预连接前端: 后台保持若干条已完成方法协商的连接, 本机客户端到来时直接发出 CONNECT 请求,
+// 省去每个连接到数据库主机的 TCP 建连与问候往返
+public class PooledFrontend extends LocalSocksServer {
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int REPLY_TIMEOUT_MS = 15000;
+    // 空闲过久的连接可能已被中间设备回收, 取用前丢弃
+    private static final long MAX_IDLE_MS = 60000;
+    private static final byte[] GREETING = {0x05, 0x01, 0x00};
+
+    private final String proxyHost;
+    private final int proxyPort;
+    private final int poolSize;
+    private final ConcurrentLinkedDeque<Warm> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private Thread refiller;
+
+    public PooledFrontend(String proxyHost, int proxyPort, int localPort, int poolSize) {
+        super(localPort, "Pool-Client");
+        this.proxyHost = proxyHost;
+        this.proxyPort = proxyPort;
+        this.poolSize = Math.max(1, poolSize);
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        super.start();
+        if (refiller == null) {
+            refiller = new Thread(this::refillLoop, "Pool-Refill");
+            refiller.setDaemon(true);
+            refiller.start();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        if (refiller != null) {
+            refiller.interrupt();
+            refiller = null;
+        }
+        drainIdle();
+    }
+
+    private void drainIdle() {
+        Warm w;
+        while ((w = idle.poll()) != null) {
+            closeQuietly(w.socket);
+        }
+    }
+
+    // 空闲连接数、命中、未命中、取用时发现已失效的连接数
+    public long[] getStats() {
+        return new long[]{idle.size(), hits.get(), misses.get(), stale.get()};
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    @Override
+    protected void relay(Socket client, byte[] request) throws IOException {
+        Socket upstream = null;
+        byte[] reply = null;
+        // 预连接可能已被对端关闭, 此时请求尚未被处理, 换新连接重发一次
+        for (int attempt = 0; reply == null; attempt++) {
+            Warm w = attempt == 0 ? take() : null;
+            try {
+                upstream = w != null ? w.socket : connect();
+            } catch (IOException e) {
+                client.getOutputStream().write(failure(0x01));
+                return;
+            }
+            try {
+                upstream.setSoTimeout(REPLY_TIMEOUT_MS);
+                upstream.getOutputStream().write(request);
+                reply = readMessage(new DataInputStream(upstream.getInputStream()));
+                if (reply == null) {
+                    throw new IOException("代理应答格式错误");
+                }
+                upstream.setSoTimeout(0);
+            } catch (IOException e) {
+                closeQuietly(upstream);
+                if (w == null) {
+                    client.getOutputStream().write(failure(0x01));
+                    return;
+                }
+                // 同一时刻建立的其余预连接多半也已失效, 一并清空由补充线程重建
+                stale.incrementAndGet();
+                drainIdle();
+                reply = null;
+                continue;
+            }
+            (w != null ? hits : misses).incrementAndGet();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+
+        try {
+            client.getOutputStream().write(reply);
+            if (reply[1] != 0x00) {
+                return;
+            }
+            Socket target = upstream;
+            CountDownLatch downDone = new CountDownLatch(1);
+            execute(() -> {
+                copy(target, client);
+                downDone.countDown();
+            });
+            copy(client, target);
+            downDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeQuietly(upstream);
+        }
+    }
+
+    // 取最新建立的连接, 最旧的留给补充线程按空闲时限淘汰
+    private Warm take() {
+        Warm w;
+        long now = System.currentTimeMillis();
+        while ((w = idle.pollLast()) != null) {
+            if (now - w.createdAt < MAX_IDLE_MS && !w.socket.isClosed()) {
+                return w;
+            }
+            closeQuietly(w.socket);
+        }
+        return null;
+    }
+
+    // 建连并完成无认证方法协商
+    private Socket connect() throws IOException {
+        Socket s = new Socket();
+        try {
+            s.setTcpNoDelay(true);
+            s.connect(new InetSocketAddress(proxyHost, proxyPort), CONNECT_TIMEOUT_MS);
+            s.setSoTimeout(CONNECT_TIMEOUT_MS);
+            s.getOutputStream().write(GREETING);
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            if (in.readUnsignedByte() != 0x05 || in.readUnsignedByte() != 0x00) {
+                throw new IOException("代理拒绝了方法协商");
+            }
+            s.setSoTimeout(0);
+            return s;
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+    }
+
+    // 池中连接被取走后立即补足; 连续失败时每秒重试一次
+    private void refillLoop() {
+        while (isRunning() && !Thread.currentThread().isInterrupted()) {
+            try {
+                if (idle.size() < poolSize) {
+                    Socket s = connect();
+                    if (!isRunning()) {
+                        closeQuietly(s);
+                        return;
+                    }
+                    idle.offer(new Warm(s));
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                Warm oldest = idle.peek();
+                if (oldest != null && now - oldest.createdAt >= MAX_IDLE_MS && idle.remove(oldest)) {
+                    closeQuietly(oldest.socket);
+                    continue;
+                }
+                synchronized (this) {
+                    wait(1000);
+                }
+            } catch (IOException e) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static void copy(Socket from, Socket to) {
+        byte[] buf = new byte[32 * 1024];
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            to.shutdownOutput();
+        } catch (IOException e) {
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    private static final class Warm {
+        final Socket socket;
+        final long createdAt = System.currentTimeMillis();
+
+        Warm(Socket socket) {
+            this.socket = socket;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.demo;
+
+public class ProxyConfig {
+    // 与库内代理的默认值一致
+    static final String DEFAULT_TIMEOUTS = "handshake=10s,connect=10s,idle=10m,half=60s";
+    static final String DEFAULT_SHAPING = "global=0,flow=0,burst=64k,ports=";
+
+    private String engine = "bio";
+    private int maxSessions = 256;
+    private int backlog = 128;
+    private int queueSize = 64;
+    private String shaping;
+    private String timeouts;
+    private boolean tcpNoDelay = true;
+    private boolean keepAlive;
+    private int receiveBuffer;
+    private int sendBuffer;
+
+    public String getEngine() {
+        return engine;
+    }
+
+    // "bio" 每连接独立线程的阻塞模式, "nio" 基于 Selector 的少量事件循环线程
+    public ProxyConfig setEngine(String engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    // 同时处理的最大会话数, 超出后进入等待队列
+    public ProxyConfig setMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+        return this;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    // ServerSocket 的 accept 队列长度
+    public ProxyConfig setBacklog(int backlog) {
+        this.backlog = backlog;
+        return this;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    // 等待空闲工作线程的连接数上限, 队列满时直接回复 SOCKS 失败
+    public ProxyConfig setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+        return this;
+    }
+
+    public String getShaping() {
+        return shaping;
+    }
+
+    // 限速, 如 "global=10m,flow=2m,burst=256k,ports=22:8|3389:8": 全局与单连接字节/秒 (k/m 后缀),
+    // ports 为目标端口的公平分配权重 (默认 1); 为空不限速
+    public ProxyConfig setShaping(String shaping) {
+        this.shaping = shaping;
+        return this;
+    }
+
+    public String getTimeouts() {
+        return timeouts;
+    }
+
+    // 超时, 如 "handshake=10s,connect=10s,idle=10m,half=60s" (ms/s/m/h 后缀, 0 不限): 握手、建连、
+    // 双向空闲与一端关闭后另一端的空闲时限, 到期的连接被回收; 为空用默认值
+    public ProxyConfig setTimeouts(String timeouts) {
+        this.timeouts = timeouts;
+        return this;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    // 关闭 Nagle 算法, 交互式连接 (SSH、远程桌面) 延迟更低; 大流量下载关闭后包数略少
+    public ProxyConfig setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    // 开启 TCP 保活, 防火墙或 NAT 不会因长时间无数据丢弃连接
+    public ProxyConfig setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    public int getReceiveBuffer() {
+        return receiveBuffer;
+    }
+
+    // SO_RCVBUF 字节数, 0 为系统默认; 高延迟链路上按 带宽×往返时延 设置
+    public ProxyConfig setReceiveBuffer(int receiveBuffer) {
+        this.receiveBuffer = receiveBuffer;
+        return this;
+    }
+
+    public int getSendBuffer() {
+        return sendBuffer;
+    }
+
+    // SO_SNDBUF 字节数, 0 为系统默认
+    public ProxyConfig setSendBuffer(int sendBuffer) {
+        this.sendBuffer = sendBuffer;
+        return this;
+    }
+
+    // start_socks5 的选项串, 包含全部配置
+    public String toOptions() {
+        return "engine=" + engine + ",backlog=" + backlog + ",queue=" + queueSize + "," + toRuntimeOptions();
+    }
+
+    // 可在运行中调整的部分 (引擎与两个队列除外). 超时与限速总是先写出默认值, 再由输入的项覆盖,
+    // 输入为空 (或限速为 off) 时代理恢复默认, 而不是沿用运行中的旧值
+    public String toRuntimeOptions() {
+        StringBuilder sb = new StringBuilder()
+                .append("sessions=").append(maxSessions)
+                .append(",nodelay=").append(tcpNoDelay ? "on" : "off")
+                .append(",keepalive=").append(keepAlive ? "on" : "off")
+                .append(",rcvbuf=").append(receiveBuffer)
+                .append(",sndbuf=").append(sendBuffer)
+                .append(',').append(DEFAULT_TIMEOUTS);
+        if (timeouts != null && !timeouts.trim().isEmpty()) {
+            sb.append(',').append(timeouts.trim());
+        }
+        sb.append(',').append(DEFAULT_SHAPING);
+        if (shaping != null && !shaping.trim().isEmpty() && !"off".equalsIgnoreCase(shaping.trim())) {
+            sb.append(',').append(shaping.trim());
+        }
+        return sb.toString();
+    }
+}
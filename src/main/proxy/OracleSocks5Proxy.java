@@ -0,0 +1,2998 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+public class OracleSocks5Proxy {
+    private static ServerSocket ss;
+    private static ServerSocketChannel ssc;
+    private static volatile boolean running = false;
+    private static volatile boolean draining = false;
+    private static Thread serverThread;
+    private static NioLoop[] loops;
+    private static Resolver resolver;
+    private static ThreadPoolExecutor workers;
+    private static ThreadPoolExecutor relays;
+    private static ThreadPoolExecutor connectors;
+    private static volatile int maxNioSessions;
+    private static volatile int listenPort;
+    static final Metrics METRICS = new Metrics();
+    static final BufferPool BUFFERS = new BufferPool(16L * 1024 * 1024);
+    static final Shaper SHAPER = new Shaper();
+    static final BlockCodec CODEC = new BlockCodec();
+    static final Reaper REAPER = new Reaper();
+    static final Tuning TUNING = new Tuning();
+    static final byte CONTROL = (byte) 0xC5;
+    static final byte MUX = (byte) 0xC6;
+    static final int MUX_VERSION = 1;
+    // 版本 2 在版本 1 基础上启用 MUX_ZDATA (载荷为 raw deflate 的 DATA)
+    static final int MUX_VERSION_DEFLATE = 2;
+    static final int MUX_OPEN = 1, MUX_REPLY = 2, MUX_DATA = 3, MUX_CREDIT = 4, MUX_FIN = 5, MUX_RST = 6, MUX_ZDATA = 7;
+    static final int MUX_FRAME = 16 * 1024;
+    static final int MUX_WINDOW = 256 * 1024;
+    static final long DNS_TIMEOUT_MS = 5000;
+    static final long ATTEMPT_DELAY_MS = 250;
+    static final byte[] METHOD_NO_AUTH = {0x05, 0x00};
+    static final byte[] NO_BYTES = new byte[0];
+    // BIO 模式下已完成控制判断的客户端连接, 停止时据此强制关闭
+    static final Set<Socket> CONNECTIONS = Collections.synchronizedSet(new HashSet<Socket>());
+
+    public static void start(final int port) throws Exception {
+        start(port, "bio");
+    }
+
+    // 选项串: 逗号分隔的 key=value, 引擎、会话、套接字、超时与限速各项可任意组合, 未出现的项用默认值.
+    // 例: engine=nio,sessions=512,backlog=256,queue=64,nodelay=on,keepalive=on,rcvbuf=256k,sndbuf=256k,
+    // connect=5s,idle=10m,global=10m,flow=2m. 不含 '=' 时按引擎名处理 (兼容旧调用)
+    public static void start(final int port, String options) throws Exception {
+        if (options == null || options.indexOf('=') < 0) {
+            start(port, options, 256, 128, 64);
+            return;
+        }
+        Map<String, String> o = parseOptions(options);
+        String engine = o.containsKey("engine") ? o.remove("engine") : "bio";
+        int sessions = (int) optionSize(o, "sessions", 256);
+        int backlog = (int) optionSize(o, "backlog", 128);
+        int queueSize = (int) optionSize(o, "queue", 64);
+        resetSettings();
+        applyOptions(o);
+        launch(port, engine, sessions, backlog, queueSize);
+    }
+
+    public static void start(final int port, String engine, int maxSessions, int backlog, int queueSize) throws Exception {
+        start(port, engine, maxSessions, backlog, queueSize, null);
+    }
+
+    public static void start(final int port, String engine, int maxSessions, int backlog, int queueSize, String shaping) throws Exception {
+        start(port, engine, maxSessions, backlog, queueSize, shaping, null);
+    }
+
+    public static void start(final int port, String engine, int maxSessions, int backlog, int queueSize, String shaping,
+                             String timeouts) throws Exception {
+        resetSettings();
+        SHAPER.configure(shaping);
+        REAPER.configure(timeouts);
+        launch(port, engine, maxSessions, backlog, queueSize);
+    }
+
+    // 限速、超时与套接字参数是静态的, 优雅停止后在同一会话内重启时会保留上次的值; 每次启动先恢复默认,
+    // 参数中未给出的项不会沿用上次的设置
+    private static void resetSettings() {
+        SHAPER.reset();
+        REAPER.reset();
+        TUNING.reset();
+    }
+
+    private static void launch(int port, String engine, int maxSessions, int backlog, int queueSize) throws Exception {
+        maxSessions = maxSessions > 0 ? maxSessions : 256;
+        backlog = backlog > 0 ? backlog : 128;
+        queueSize = Math.max(0, queueSize);
+        TUNING.sessions = maxSessions;
+        TUNING.backlog = backlog;
+        TUNING.queue = queueSize;
+        METRICS.startedAt = System.currentTimeMillis();
+        listenPort = port;
+        draining = false;
+        resolver = new Resolver(4, Math.max(16, queueSize));
+        if (engine != null && "nio".equalsIgnoreCase(engine.trim())) {
+            startNio(port, maxSessions, backlog, queueSize);
+        } else {
+            startBio(port, maxSessions, backlog, queueSize);
+        }
+        // running 已由 startBio/startNio 置位, 回收线程据此运行
+        REAPER.start();
+    }
+
+    private static void startBio(final int port, int maxSessions, final int backlog, int queueSize) throws Exception {
+        running = true;
+        loops = null;
+        workers = new ThreadPoolExecutor(maxSessions, maxSessions, 60L, TimeUnit.SECONDS,
+                queueSize > 0 ? new ArrayBlockingQueue<Runnable>(queueSize) : new SynchronousQueue<Runnable>(),
+                named("SOCKS-Worker"));
+        startPools(maxSessions);
+        serverThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    ss = new ServerSocket();
+                    // 接收缓冲须在 bind 前设置, 接入的连接继承该值并据此协商窗口缩放
+                    if (TUNING.receiveBuffer > 0) {
+                        ss.setReceiveBufferSize(TUNING.receiveBuffer);
+                    }
+                    ss.bind(new InetSocketAddress(port), backlog);
+                    while (running) {
+                        try {
+                            final Socket client = ss.accept();
+                            final long acceptedAt = System.nanoTime();
+                            TUNING.apply(client);
+                            try {
+                                workers.execute(new Runnable() {
+                                    public void run() {
+                                        METRICS.active.incrementAndGet();
+                                        CONNECTIONS.add(client);
+                                        Watch watch = REAPER.watch(new Watch(client));
+                                        try {
+                                            handleConnection(client, acceptedAt, watch);
+                                        } catch (Exception e) {
+                                            try { client.close(); } catch (Exception ignored) {}
+                                        } finally {
+                                            watch.close();
+                                            CONNECTIONS.remove(client);
+                                            METRICS.active.decrementAndGet();
+                                        }
+                                    }
+                                });
+                                METRICS.accepted.incrementAndGet();
+                            } catch (RejectedExecutionException e) {
+                                reject(client);
+                            }
+                        } catch (Exception e) {
+                            if (ss.isClosed()) {
+                                break;
+                            }
+                            if (running) {
+                                try { Thread.sleep(1000); } catch (InterruptedException ignored) {}
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    if (running) {
+                        e.printStackTrace();
+                    }
+                } finally {
+                    try {
+                        if (ss != null && !ss.isClosed()) {
+                            ss.close();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    workers.shutdown();
+                    relays.shutdown();
+                    connectors.shutdown();
+                    resolver.shutdown();
+                }
+            }
+        }, "SOCKS-Server");
+        serverThread.start();
+    }
+
+    // 中继与建连线程池: BIO 的下行中继, 以及两种引擎下多路复用流的建连 (含地址竞速) 与泵线程
+    private static void startPools(int maxSessions) {
+        relays = new ThreadPoolExecutor(0, maxSessions, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), named("SOCKS-Relay"));
+        connectors = new ThreadPoolExecutor(0, 64, 30L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), named("SOCKS-Connect"));
+    }
+
+    private static void startNio(final int port, int maxSessions, final int backlog, int queueSize) throws Exception {
+        running = true;
+        maxNioSessions = maxSessions;
+        startPools(maxSessions);
+        int n = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        loops = new NioLoop[n];
+        for (int i = 0; i < n; i++) {
+            loops[i] = new NioLoop();
+            new Thread(loops[i], "SOCKS-NIO-" + i).start();
+        }
+        serverThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    ssc = ServerSocketChannel.open();
+                    if (TUNING.receiveBuffer > 0) {
+                        ssc.socket().setReceiveBufferSize(TUNING.receiveBuffer);
+                    }
+                    ssc.socket().bind(new InetSocketAddress(port), backlog);
+                    int next = 0;
+                    while (running) {
+                        try {
+                            SocketChannel client = ssc.accept();
+                            long acceptedAt = System.nanoTime();
+                            if (METRICS.active.get() >= maxNioSessions) {
+                                reject(client.socket());
+                                continue;
+                            }
+                            METRICS.active.incrementAndGet();
+                            METRICS.accepted.incrementAndGet();
+                            loops[next++ % loops.length].register(client, acceptedAt);
+                        } catch (Exception e) {
+                            if (!ssc.isOpen()) {
+                                break;
+                            }
+                            if (running) {
+                                try { Thread.sleep(1000); } catch (InterruptedException ignored) {}
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    if (running) {
+                        e.printStackTrace();
+                    }
+                } finally {
+                    closeQuietly(ssc);
+                    // 优雅停止时由 shutdown 在排空后结束事件循环
+                    if (!draining) {
+                        running = false;
+                        wakeupLoops();
+                    }
+                    relays.shutdown();
+                    connectors.shutdown();
+                    resolver.shutdown();
+                }
+            }
+        }, "SOCKS-Server");
+        serverThread.start();
+    }
+
+    // 单次读取通常即可拿到问候与请求; 客户端流水线发送时方法选择应答与最终应答合并为一次写出.
+    // 握手阶段的阻塞读由回收线程按握手时限打断
+    private static void handleConnection(Socket client, long acceptedAt, Watch watch) throws Exception {
+        if (!running) {
+            client.close();
+            return;
+        }
+        InputStream in = client.getInputStream();
+        OutputStream out = client.getOutputStream();
+        byte[] buf = BUFFERS.acquire(0);
+        Socket target;
+        Request r;
+        try {
+            int len = in.read(buf);
+            if (len <= 0) {
+                client.close();
+                return;
+            }
+            if (buf[0] == CONTROL) {
+                CONNECTIONS.remove(client);
+                // 控制命令 (如带期限的 STOP) 自带读超时, 不受握手时限约束
+                REAPER.watched.remove(watch);
+                handleControl(client, new SequenceInputStream(new ByteArrayInputStream(buf, 1, len - 1), in));
+                return;
+            }
+            if (buf[0] == MUX) {
+                handleMux(client, new SequenceInputStream(new ByteArrayInputStream(buf, 1, len - 1), in), watch);
+                return;
+            }
+            int greeting;
+            try {
+                while ((greeting = parseGreeting(buf, 0, len)) == 0) {
+                    len = fill(in, buf, len);
+                }
+            } catch (ProtocolException e) {
+                refuse(client, new byte[]{0x05, (byte) 0xFF});
+                return;
+            }
+
+            byte[] pending = METHOD_NO_AUTH;
+            try {
+                r = parseRequest(buf, greeting, len - greeting);
+                if (r == null) {
+                    out.write(pending);
+                    pending = NO_BYTES;
+                    // 已完成方法协商的连接 (如本机预连接池) 可以长时间等待请求, 改按空闲时限回收
+                    watch.greeted();
+                    while ((r = parseRequest(buf, greeting, len - greeting)) == null) {
+                        len = fill(in, buf, len);
+                    }
+                }
+            } catch (ProtocolException e) {
+                refuse(client, concat(pending, buildReply(0x08, null)));
+                return;
+            }
+            int early = greeting + r.length;
+
+            if (r.cmd == 0x03) {
+                udpAssociate(client, r.atyp == 0x03 ? null
+                        : new InetSocketAddress(InetAddress.getByAddress(r.addr), r.port), pending, acceptedAt, watch);
+                return;
+            }
+            if (r.cmd != 0x01) {
+                refuse(client, concat(pending, buildReply(0x07, null)));
+                return;
+            }
+            // 解析与建连由各自的超时约束
+            watch.phase = Watch.CONNECT;
+            try {
+                InetAddress[] addrs = r.atyp == 0x03 ? resolver.resolve(r.host, DNS_TIMEOUT_MS)
+                        : new InetAddress[]{InetAddress.getByAddress(r.addr)};
+                if (isListener(addrs, r.port)) {
+                    refuse(client, concat(pending, buildReply(0x02, null)));
+                    return;
+                }
+                target = connectRace(addrs, r.port, REAPER.connectTimeout());
+            } catch (IOException e) {
+                if (e instanceof SocketTimeoutException) {
+                    REAPER.connects.incrementAndGet();
+                }
+                refuse(client, concat(pending, buildReply(replyCode(e), null)));
+                return;
+            }
+            watch.relaying(target);
+            out.write(concat(pending, buildReply(0x00, (InetSocketAddress) target.getLocalSocketAddress())));
+            METRICS.handshake(acceptedAt);
+            if (len > early) {
+                target.getOutputStream().write(buf, early, len - early);
+                METRICS.bytesIn.addAndGet(len - early);
+            }
+        } finally {
+            BUFFERS.release(buf);
+        }
+        // 本线程负责上行, 下行交给中继线程; 两个方向都结束 (或被回收) 后才返回, 连接计数随之释放.
+        // 中继线程池已满时关闭连接
+        Flow flow = SHAPER.flow(r.port);
+        try {
+            if (!forward(target, client, METRICS.bytesOut, flow, watch)) {
+                watch.close();
+                return;
+            }
+            relay(client, target, METRICS.bytesIn, flow, watch);
+            watch.awaitClosed();
+        } finally {
+            SHAPER.release(flow);
+        }
+    }
+
+    private static void refuse(Socket client, byte[] reply) throws IOException {
+        METRICS.handshakeFailures.incrementAndGet();
+        try {
+            client.getOutputStream().write(reply);
+        } finally {
+            client.close();
+        }
+    }
+
+    private static int fill(InputStream in, byte[] buf, int len) throws IOException {
+        if (len == buf.length) {
+            throw new ProtocolException("SOCKS handshake too long");
+        }
+        int n = in.read(buf, len, buf.length - len);
+        if (n < 0) {
+            throw new EOFException("client closed during handshake");
+        }
+        return len + n;
+    }
+
+    // 控制命令只认回环来源, 而经代理转发到自身监听端口的连接同样来自回环地址, 任何 SOCKS 客户端都可借此
+    // 停止或改配置监听; 这类目标一律拒绝 (0x02), 本机其它端口不受影响
+    static boolean isListener(InetAddress[] addrs, int port) {
+        if (port != listenPort) {
+            return false;
+        }
+        for (int i = 0; i < addrs.length; i++) {
+            if (addrs[i].isLoopbackAddress() || addrs[i].isAnyLocalAddress()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int replyCode(IOException e) {
+        if (e instanceof UnknownHostException || e instanceof NoRouteToHostException
+                || e instanceof SocketTimeoutException) {
+            return 0x04;
+        }
+        if (e instanceof ConnectException) {
+            return 0x05;
+        }
+        return 0x01;
+    }
+
+    static byte[] concat(byte[] a, byte[] b) {
+        byte[] r = new byte[a.length + b.length];
+        System.arraycopy(a, 0, r, 0, a.length);
+        System.arraycopy(b, 0, r, a.length, b.length);
+        return r;
+    }
+
+    // 将不同地址族交替排列, 首个地址族沿用解析结果的顺序 (RFC 8305)
+    static InetAddress[] interleave(InetAddress[] addrs) {
+        List<InetAddress> first = new ArrayList<InetAddress>();
+        List<InetAddress> second = new ArrayList<InetAddress>();
+        boolean v6First = addrs[0] instanceof Inet6Address;
+        for (InetAddress a : addrs) {
+            ((a instanceof Inet6Address) == v6First ? first : second).add(a);
+        }
+        InetAddress[] order = new InetAddress[addrs.length];
+        int n = 0;
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                order[n++] = first.get(i);
+            }
+            if (i < second.size()) {
+                order[n++] = second.get(i);
+            }
+        }
+        return order;
+    }
+
+    // Happy Eyeballs: 每隔 ATTEMPT_DELAY_MS 或上一个尝试失败时发起下一个连接, 最先成功者胜出, 其余关闭
+    static Socket connectRace(InetAddress[] addrs, int port, int timeoutMs) throws IOException {
+        final InetAddress[] order = interleave(addrs);
+        if (order.length == 1) {
+            Socket s = new Socket();
+            try {
+                TUNING.apply(s);
+                s.connect(new InetSocketAddress(order[0], port), timeoutMs);
+                return s;
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+        }
+        final Race race = new Race();
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long nextStart = 0;
+        int started = 0;
+        synchronized (race) {
+            while (race.winner == null) {
+                long now = System.currentTimeMillis();
+                if (now >= deadline || race.failures == order.length) {
+                    break;
+                }
+                if (started < order.length && (now >= nextStart || race.failures == started)) {
+                    race.launch(new InetSocketAddress(order[started++], port), (int) (deadline - now));
+                    nextStart = now + ATTEMPT_DELAY_MS;
+                    continue;
+                }
+                long wait = (started < order.length ? Math.min(nextStart, deadline) : deadline) - now;
+                try {
+                    race.wait(Math.max(1, wait));
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            race.done = true;
+            for (Socket s : race.attempts) {
+                if (s != race.winner) {
+                    try { s.close(); } catch (IOException ignored) {}
+                }
+            }
+            if (race.winner != null) {
+                return race.winner;
+            }
+            throw race.error != null ? race.error : new SocketTimeoutException("connect timed out");
+        }
+    }
+
+    static final class Race {
+        final List<Socket> attempts = new ArrayList<Socket>();
+        Socket winner;
+        IOException error;
+        int failures;
+        boolean done;
+
+        void launch(final InetSocketAddress addr, final int timeoutMs) {
+            final Socket s = new Socket();
+            attempts.add(s);
+            Runnable task = new Runnable() {
+                public void run() {
+                    try {
+                        TUNING.apply(s);
+                        s.connect(addr, timeoutMs);
+                        synchronized (Race.this) {
+                            if (winner == null && !done) {
+                                winner = s;
+                                Race.this.notifyAll();
+                                return;
+                            }
+                        }
+                        s.close();
+                    } catch (IOException e) {
+                        synchronized (Race.this) {
+                            failures++;
+                            error = e;
+                            Race.this.notifyAll();
+                        }
+                    }
+                }
+            };
+            // 建连线程池已满时本次尝试记为失败 (调用方持有 Race 锁), 不另起线程
+            if (!spawn(connectors, task)) {
+                failures++;
+                error = new SocketException("connect pool exhausted");
+            }
+        }
+    }
+
+    private static void udpAssociate(final Socket client, InetSocketAddress expected, byte[] pending, long acceptedAt,
+                                     Watch watch) throws IOException {
+        final UdpAssociation assoc = new UdpAssociation(client.getLocalAddress(), client.getInetAddress(), expected);
+        Selector selector = null;
+        try {
+            // 控制连接关闭即结束关联; 空闲超时由回收线程关闭控制连接
+            Runnable watcher = new Runnable() {
+                public void run() {
+                    try {
+                        InputStream in = client.getInputStream();
+                        byte[] discard = new byte[64];
+                        while (in.read(discard) != -1) {
+                        }
+                    } catch (IOException ignored) {
+                    } finally {
+                        assoc.close();
+                    }
+                }
+            };
+            if (!spawn(relays, watcher)) {
+                refuse(client, concat(pending, buildReply(0x01, null)));
+                return;
+            }
+            client.getOutputStream().write(concat(pending, buildReply(0x00, assoc.bound())));
+            METRICS.handshake(acceptedAt);
+            watch.relaying(null);
+            selector = Selector.open();
+            assoc.channel.register(selector, SelectionKey.OP_READ);
+            while (running && assoc.channel.isOpen()) {
+                if (selector.select(1000) > 0) {
+                    selector.selectedKeys().clear();
+                    assoc.pump();
+                    watch.touch();
+                }
+            }
+        } finally {
+            assoc.close();
+            if (selector != null) {
+                selector.close();
+            }
+            client.close();
+        }
+    }
+
+    static final int UDP_BATCH = 64;
+    static final int UDP_HEADROOM = 22;
+
+    // UDP ASSOCIATE: 每个关联一个 DatagramChannel, 每次唤醒批量收发至多 UDP_BATCH 个数据报
+    static final class UdpAssociation {
+        final DatagramChannel channel;
+        final InetAddress clientAddr;
+        volatile InetSocketAddress clientEndpoint;
+        private final byte[] buf = new byte[65536];
+        private final ByteBuffer packet = ByteBuffer.wrap(buf);
+        private boolean closed;
+
+        UdpAssociation(InetAddress local, InetAddress clientAddr, InetSocketAddress expected) throws IOException {
+            this.clientAddr = clientAddr;
+            if (expected != null && expected.getPort() != 0 && !expected.getAddress().isAnyLocalAddress()) {
+                clientEndpoint = expected;
+            }
+            channel = DatagramChannel.open();
+            try {
+                channel.socket().setReceiveBufferSize(1 << 20);
+                channel.socket().setSendBufferSize(1 << 20);
+                channel.socket().bind(new InetSocketAddress(local, 0));
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        InetSocketAddress bound() {
+            return (InetSocketAddress) channel.socket().getLocalSocketAddress();
+        }
+
+        int pump() throws IOException {
+            int n = 0;
+            while (n < UDP_BATCH) {
+                packet.clear();
+                packet.position(UDP_HEADROOM);
+                InetSocketAddress src = (InetSocketAddress) channel.receive(packet);
+                if (src == null) {
+                    break;
+                }
+                n++;
+                InetSocketAddress endpoint = clientEndpoint;
+                if (endpoint != null ? endpoint.equals(src) : src.getAddress().equals(clientAddr)) {
+                    clientEndpoint = src;
+                    fromClient(packet.position());
+                } else if (endpoint != null) {
+                    toClient(src, packet.position(), endpoint);
+                }
+            }
+            return n;
+        }
+
+        private void fromClient(int end) throws IOException {
+            int len = end - UDP_HEADROOM;
+            if (len < 4 || buf[UDP_HEADROOM + 2] != 0) {
+                return;
+            }
+            final Request r = parseAddress(buf, UDP_HEADROOM, len);
+            if (r == null) {
+                return;
+            }
+            int dataOff = UDP_HEADROOM + r.length;
+            if (r.atyp != 0x03) {
+                METRICS.bytesIn.addAndGet(channel.send(ByteBuffer.wrap(buf, dataOff, end - dataOff),
+                        new InetSocketAddress(InetAddress.getByAddress(r.addr), r.port)));
+                return;
+            }
+            final byte[] data = new byte[end - dataOff];
+            System.arraycopy(buf, dataOff, data, 0, data.length);
+            resolver.resolve(r.host, new ResolveCallback() {
+                public void resolved(InetAddress[] addrs, IOException error) {
+                    if (addrs == null) {
+                        return;
+                    }
+                    try {
+                        METRICS.bytesIn.addAndGet(channel.send(ByteBuffer.wrap(data), new InetSocketAddress(addrs[0], r.port)));
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+        }
+
+        private void toClient(InetSocketAddress src, int end, InetSocketAddress endpoint) throws IOException {
+            byte[] ip = src.getAddress().getAddress();
+            int start = UDP_HEADROOM - (6 + ip.length);
+            buf[start] = 0;
+            buf[start + 1] = 0;
+            buf[start + 2] = 0;
+            buf[start + 3] = (byte) (ip.length == 16 ? 0x04 : 0x01);
+            System.arraycopy(ip, 0, buf, start + 4, ip.length);
+            buf[UDP_HEADROOM - 2] = (byte) (src.getPort() >> 8);
+            buf[UDP_HEADROOM - 1] = (byte) (src.getPort() & 0xFF);
+            channel.send(ByteBuffer.wrap(buf, start, end - start), endpoint);
+            METRICS.bytesOut.addAndGet(end - UDP_HEADROOM);
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            closeQuietly(channel);
+        }
+    }
+
+    private static boolean forward(final Socket from, final Socket to, final AtomicLong counter, final Flow flow,
+                                   final Watch watch) {
+        return spawn(relays, new Runnable() {
+            public void run() {
+                relay(from, to, counter, flow, watch);
+            }
+        });
+    }
+
+    // 读到 EOF 时只半关闭对端写方向, 另一方向继续转发直到同样结束; 出错或停止时关闭整个连接
+    private static void relay(Socket from, Socket to, AtomicLong counter, Flow flow, Watch watch) {
+        SizeClass size = new SizeClass();
+        byte[] buffer = BUFFERS.acquire(size.cls);
+        int len = 0;
+        try {
+            InputStream input = from.getInputStream();
+            OutputStream output = to.getOutputStream();
+            while (running && (len = input.read(buffer)) != -1) {
+                watch.touch();
+                for (int off = 0; off < len; ) {
+                    int n = SHAPER.acquire(flow, len - off);
+                    output.write(buffer, off, n);
+                    off += n;
+                }
+                counter.addAndGet(len);
+                if (size.observe(len, buffer.length)) {
+                    BUFFERS.release(buffer);
+                    buffer = BUFFERS.acquire(size.cls);
+                }
+            }
+        } catch (Exception e) {
+            len = 0;
+        } finally {
+            BUFFERS.release(buffer);
+            if (len == -1) {
+                watch.finish(to);
+            } else {
+                watch.close();
+            }
+        }
+    }
+
+    private static void reject(Socket client) {
+        METRICS.rejected.incrementAndGet();
+        try {
+            client.getOutputStream().write(new byte[]{0x05, (byte) 0xFF});
+            client.shutdownOutput();
+            InputStream in = client.getInputStream();
+            int pending = in.available();
+            if (pending > 0) {
+                in.skip(pending);
+            }
+        } catch (IOException ignored) {
+        } finally {
+            try { client.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    static ThreadFactory named(final String prefix) {
+        final AtomicInteger seq = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                return new Thread(r, prefix + "-" + seq.incrementAndGet());
+            }
+        };
+    }
+
+    private static void handleControl(Socket client, InputStream in) throws IOException {
+        try {
+            if (!client.getInetAddress().isLoopbackAddress()) {
+                return;
+            }
+            client.setSoTimeout(5000);
+            StringBuffer line = new StringBuffer();
+            int c;
+            while ((c = in.read()) != -1 && c != '\n') {
+                line.append((char) c);
+            }
+            String reply = control(line.toString().trim());
+            client.getOutputStream().write((reply + "\n").getBytes("UTF-8"));
+        } finally {
+            client.close();
+        }
+    }
+
+    static String control(String command) {
+        if (command.toUpperCase().startsWith("STOP")) {
+            String arg = command.substring(4).trim();
+            return shutdown(arg.length() == 0 ? 0 : Long.parseLong(arg));
+        }
+        if ("DNS".equalsIgnoreCase(command)) {
+            return resolver == null ? "" : resolver.stats();
+        }
+        if ("METRICS".equalsIgnoreCase(command)) {
+            return METRICS.snapshot(resolver) + ";" + SHAPER.stats() + ";" + CODEC.stats() + ";" + REAPER.stats() + ";" + TUNING.stats();
+        }
+        if (command.toUpperCase().startsWith("CONFIG")) {
+            try {
+                return reconfigure(command.substring(6).trim());
+            } catch (IllegalArgumentException e) {
+                return "ERR " + e.getMessage();
+            }
+        }
+        if (command.toUpperCase().startsWith("TIMEOUTS")) {
+            try {
+                REAPER.configure(command.substring(8).trim());
+            } catch (IllegalArgumentException e) {
+                return "ERR " + e.getMessage();
+            }
+            return REAPER.stats();
+        }
+        if (command.toUpperCase().startsWith("SHAPE")) {
+            try {
+                SHAPER.configure(command.substring(5).trim());
+            } catch (IllegalArgumentException e) {
+                return "ERR " + e.getMessage();
+            }
+            return SHAPER.stats();
+        }
+        return "ERR unknown command: " + command;
+    }
+
+    public static String dnsStats(int port) throws IOException {
+        return sendControl(port, "DNS");
+    }
+
+    public static String metrics(int port) throws IOException {
+        return sendControl(port, "METRICS");
+    }
+
+    // 运行中调整整形参数, 空串仅查询当前设置
+    public static String shape(int port, String spec) throws IOException {
+        return sendControl(port, "SHAPE " + (spec == null ? "" : spec));
+    }
+
+    // 运行中调整超时, 格式同 start 的 timeouts 参数; 空串仅查询当前设置
+    public static String timeouts(int port, String spec) throws IOException {
+        return sendControl(port, "TIMEOUTS " + (spec == null ? "" : spec));
+    }
+
+    // 运行中调整选项, 格式同 start 的选项串; 空串仅查询当前设置
+    public static String reconfigure(int port, String options) throws IOException {
+        return sendControl(port, "CONFIG " + (options == null ? "" : options));
+    }
+
+    // 引擎、accept 队列与等待队列在启动时确定; 会话上限立即生效, 套接字参数作用于此后新建的连接
+    static String reconfigure(String options) {
+        if (options.length() > 0) {
+            Map<String, String> o = parseOptions(options);
+            if (o.containsKey("engine") || o.containsKey("backlog") || o.containsKey("queue")) {
+                throw new IllegalArgumentException("engine/backlog/queue require restart");
+            }
+            int sessions = (int) optionSize(o, "sessions", 0);
+            applyOptions(o);
+            if (sessions > 0) {
+                resize(sessions);
+            }
+        }
+        return TUNING.stats() + ";" + REAPER.stats() + ";" + SHAPER.stats();
+    }
+
+    static Map<String, String> parseOptions(String options) {
+        Map<String, String> o = new LinkedHashMap<String, String>();
+        String[] items = options.split(",");
+        for (int i = 0; i < items.length; i++) {
+            String item = items[i].trim();
+            if (item.length() == 0) {
+                continue;
+            }
+            int eq = item.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("bad option: " + item);
+            }
+            o.put(item.substring(0, eq).trim().toLowerCase(), item.substring(eq + 1).trim());
+        }
+        return o;
+    }
+
+    private static long optionSize(Map<String, String> o, String key, long def) {
+        String v = o.remove(key);
+        return v == null ? def : Shaper.parseSize(v);
+    }
+
+    // 超时与限速项转交各自的解析, 其余为套接字参数
+    static void applyOptions(Map<String, String> o) {
+        StringBuffer timeouts = new StringBuffer();
+        StringBuffer shaping = new StringBuffer();
+        Boolean noDelay = null, keepAlive = null;
+        long rcv = -1, snd = -1;
+        for (Iterator<Map.Entry<String, String>> it = o.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, String> e = it.next();
+            String key = e.getKey();
+            String value = e.getValue();
+            if ("handshake".equals(key) || "connect".equals(key) || "idle".equals(key) || "half".equals(key)) {
+                timeouts.append(timeouts.length() > 0 ? "," : "").append(key).append('=').append(value);
+            } else if ("global".equals(key) || "flow".equals(key) || "burst".equals(key) || "ports".equals(key)) {
+                shaping.append(shaping.length() > 0 ? "," : "").append(key).append('=').append(value);
+            } else if ("nodelay".equals(key)) {
+                noDelay = Boolean.valueOf(parseSwitch(value));
+            } else if ("keepalive".equals(key)) {
+                keepAlive = Boolean.valueOf(parseSwitch(value));
+            } else if ("rcvbuf".equals(key)) {
+                rcv = Shaper.parseSize(value);
+            } else if ("sndbuf".equals(key)) {
+                snd = Shaper.parseSize(value);
+            } else {
+                throw new IllegalArgumentException("unknown option: " + key);
+            }
+        }
+        // 先在临时实例上校验, 任何一项有误都不做修改
+        new Reaper().configure(timeouts.toString());
+        new Shaper().configure(shaping.toString());
+        SHAPER.configure(shaping.toString());
+        REAPER.configure(timeouts.toString());
+        if (noDelay != null) {
+            TUNING.noDelay = noDelay.booleanValue();
+        }
+        if (keepAlive != null) {
+            TUNING.keepAlive = keepAlive.booleanValue();
+        }
+        if (rcv >= 0) {
+            TUNING.receiveBuffer = (int) Math.min(Integer.MAX_VALUE, rcv);
+        }
+        if (snd >= 0) {
+            TUNING.sendBuffer = (int) Math.min(Integer.MAX_VALUE, snd);
+        }
+    }
+
+    static boolean parseSwitch(String v) {
+        v = v.toLowerCase();
+        if ("on".equals(v) || "true".equals(v) || "1".equals(v)) {
+            return true;
+        }
+        if ("off".equals(v) || "false".equals(v) || "0".equals(v)) {
+            return false;
+        }
+        throw new IllegalArgumentException("bad switch: " + v);
+    }
+
+    // BIO 按会话上限伸缩工作线程池 (扩大时先调上限, 缩小时先调核心数); NIO 只调整准入上限; 中继线程池两者都跟随
+    private static void resize(int sessions) {
+        TUNING.sessions = sessions;
+        maxNioSessions = sessions;
+        ThreadPoolExecutor w = workers;
+        if (loops == null && w != null) {
+            if (sessions > w.getMaximumPoolSize()) {
+                w.setMaximumPoolSize(sessions);
+                w.setCorePoolSize(sessions);
+            } else {
+                w.setCorePoolSize(sessions);
+                w.setMaximumPoolSize(sessions);
+            }
+        }
+        ThreadPoolExecutor r = relays;
+        if (r != null) {
+            r.setMaximumPoolSize(sessions);
+        }
+    }
+
+    // 返回停止时仍在的连接数 (自然结束与超时强制关闭之和)
+    public static int stop(int port, int deadlineMs) throws IOException {
+        deadlineMs = Math.max(0, deadlineMs);
+        String reply = sendControl(port, "STOP " + deadlineMs, deadlineMs + 10000);
+        if (!reply.startsWith("closed=")) {
+            throw new IOException("stop failed: " + reply);
+        }
+        int end = reply.indexOf(';');
+        return Integer.parseInt(reply.substring("closed=".length(), end < 0 ? reply.length() : end));
+    }
+
+    // 先关闭监听不再接入, 在期限内等待现有连接自然结束, 到期后强制关闭剩余连接并结束所有工作线程
+    static synchronized String shutdown(long deadlineMs) {
+        if (!running) {
+            return "closed=0;drained=0;aborted=0;stop_ms=0";
+        }
+        long begin = System.currentTimeMillis();
+        draining = true;
+        try {
+            if (ss != null) {
+                ss.close();
+            }
+        } catch (IOException ignored) {
+        }
+        closeQuietly(ssc);
+        int open = liveSessions();
+        long until = begin + deadlineMs;
+        while (liveSessions() > 0 && System.currentTimeMillis() < until) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        int aborted = liveSessions();
+        running = false;
+        Socket[] remaining;
+        synchronized (CONNECTIONS) {
+            remaining = CONNECTIONS.toArray(new Socket[CONNECTIONS.size()]);
+        }
+        for (int i = 0; i < remaining.length; i++) {
+            try { remaining[i].close(); } catch (IOException ignored) {}
+        }
+        wakeupLoops();
+        return "closed=" + Math.max(open, aborted) + ";drained=" + Math.max(0, open - aborted)
+                + ";aborted=" + aborted + ";stop_ms=" + (System.currentTimeMillis() - begin);
+    }
+
+    private static int liveSessions() {
+        return loops != null ? METRICS.active.get() : CONNECTIONS.size();
+    }
+
+    private static void wakeupLoops() {
+        NioLoop[] l = loops;
+        if (l != null) {
+            for (int i = 0; i < l.length; i++) {
+                l[i].selector.wakeup();
+            }
+        }
+    }
+
+    static String sendControl(int port, String command) throws IOException {
+        return sendControl(port, command, 10000);
+    }
+
+    static String sendControl(int port, String command, int timeoutMs) throws IOException {
+        Socket s = new Socket();
+        try {
+            s.connect(new InetSocketAddress("127.0.0.1", port), 3000);
+            s.setSoTimeout(timeoutMs);
+            OutputStream out = s.getOutputStream();
+            out.write(CONTROL);
+            out.write((command + "\n").getBytes("UTF-8"));
+            InputStream in = s.getInputStream();
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            byte[] buf = new byte[512];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                reply.write(buf, 0, n);
+            }
+            return new String(reply.toByteArray(), "UTF-8").trim();
+        } finally {
+            s.close();
+        }
+    }
+
+    // 多路复用隧道: 客户端在本地完成 SOCKS 握手, 多个逻辑流经同一条连接以帧转发.
+    // 帧格式: 类型(1) + 流号(4) + 长度(4) + 载荷; OPEN 载荷为原样的 SOCKS 请求, REPLY 载荷为 SOCKS 应答.
+    // 流控按流计算: 每个方向初始额度 MUX_WINDOW, 接收方写出一半后以 CREDIT 归还, 额度按解压后的字节计
+    // 隧道只受握手时限约束 (前端长期持有空闲隧道), 空闲与半关闭时限按流计算
+    private static void handleMux(Socket client, InputStream in, Watch watch) throws IOException {
+        CONNECTIONS.add(client);
+        METRICS.muxTunnels.incrementAndGet();
+        if (watch == null) {
+            watch = REAPER.watch(new Watch(client));
+        }
+        try {
+            int version = in.read();
+            if (version != MUX_VERSION && version != MUX_VERSION_DEFLATE) {
+                return;
+            }
+            client.setTcpNoDelay(true);
+            REAPER.watched.remove(watch);
+            MuxTunnel tunnel = new MuxTunnel(client, in, version);
+            tunnel.run();
+        } finally {
+            watch.close();
+            METRICS.muxTunnels.decrementAndGet();
+            CONNECTIONS.remove(client);
+            client.close();
+        }
+    }
+
+    static final class MuxTunnel {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final Map<Integer, MuxStream> streams = new ConcurrentHashMap<Integer, MuxStream>();
+        final boolean deflate;
+
+        MuxTunnel(Socket socket, InputStream in, int version) throws IOException {
+            this.socket = socket;
+            this.deflate = version == MUX_VERSION_DEFLATE;
+            this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            synchronized (out) {
+                out.write(MUX);
+                out.write(version);
+                out.flush();
+            }
+        }
+
+        // 读线程只解帧与分发, 写往目标由各流自己的写出任务完成, 一个目标阻塞不会拖住同隧道的其它流
+        void run() throws IOException {
+            byte[] buf = new byte[MUX_FRAME];
+            byte[] plain = deflate ? new byte[MUX_FRAME] : null;
+            Inflater inflater = deflate ? new Inflater(true) : null;
+            try {
+                while (running) {
+                    int type = in.read();
+                    if (type < 0) {
+                        break;
+                    }
+                    int id = in.readInt();
+                    int len = in.readInt();
+                    if (len < 0 || len > buf.length) {
+                        throw new ProtocolException("mux frame too long: " + len);
+                    }
+                    in.readFully(buf, 0, len);
+                    if (type == MUX_OPEN) {
+                        open(id, buf, len);
+                        continue;
+                    }
+                    // 已关闭流的迟到帧直接丢弃
+                    MuxStream s = streams.get(Integer.valueOf(id));
+                    if (s == null) {
+                        continue;
+                    }
+                    if (type == MUX_DATA) {
+                        s.write(buf, len);
+                    } else if (type == MUX_ZDATA && inflater != null) {
+                        s.write(plain, CODEC.inflate(inflater, buf, len, plain));
+                    } else if (type == MUX_CREDIT && len == 4) {
+                        s.grant(((buf[0] & 0xFF) << 24) | ((buf[1] & 0xFF) << 16) | ((buf[2] & 0xFF) << 8) | (buf[3] & 0xFF));
+                    } else if (type == MUX_FIN) {
+                        s.finInput();
+                    } else if (type == MUX_RST) {
+                        s.close(false);
+                    }
+                }
+            } finally {
+                MuxStream[] open = streams.values().toArray(new MuxStream[0]);
+                for (int i = 0; i < open.length; i++) {
+                    open[i].close(false);
+                }
+                if (inflater != null) {
+                    inflater.end();
+                }
+                socket.close();
+            }
+        }
+
+        private void open(final int id, byte[] buf, int len) {
+            final long openedAt = System.nanoTime();
+            final byte[] request = new byte[len];
+            System.arraycopy(buf, 0, request, 0, len);
+            METRICS.muxStreams.incrementAndGet();
+            boolean started = spawn(connectors, new Runnable() {
+                public void run() {
+                    connect(id, request, openedAt);
+                }
+            });
+            if (!started) {
+                METRICS.handshakeFailures.incrementAndGet();
+                send(MUX_REPLY, id, buildReply(0x01, null));
+            }
+        }
+
+        private void connect(int id, byte[] request, long openedAt) {
+            Request r;
+            try {
+                r = parseRequest(request, 0, request.length);
+            } catch (IOException e) {
+                r = null;
+            }
+            if (r == null || r.cmd != 0x01) {
+                METRICS.handshakeFailures.incrementAndGet();
+                send(MUX_REPLY, id, buildReply(r == null ? 0x08 : 0x07, null));
+                return;
+            }
+            Socket target;
+            try {
+                InetAddress[] addrs = r.atyp == 0x03 ? resolver.resolve(r.host, DNS_TIMEOUT_MS)
+                        : new InetAddress[]{InetAddress.getByAddress(r.addr)};
+                if (isListener(addrs, r.port)) {
+                    METRICS.handshakeFailures.incrementAndGet();
+                    send(MUX_REPLY, id, buildReply(0x02, null));
+                    return;
+                }
+                target = connectRace(addrs, r.port, REAPER.connectTimeout());
+                target.setTcpNoDelay(true);
+                target.setSendBufferSize(MUX_WINDOW);
+            } catch (IOException e) {
+                if (e instanceof SocketTimeoutException) {
+                    REAPER.connects.incrementAndGet();
+                }
+                METRICS.handshakeFailures.incrementAndGet();
+                send(MUX_REPLY, id, buildReply(replyCode(e), null));
+                return;
+            }
+            MuxStream s = new MuxStream(this, id, target, SHAPER.flow(r.port));
+            streams.put(Integer.valueOf(id), s);
+            if (!send(MUX_REPLY, id, buildReply(0x00, (InetSocketAddress) target.getLocalSocketAddress()))) {
+                s.close(false);
+                return;
+            }
+            METRICS.handshake(openedAt);
+            if (!spawn(relays, s)) {
+                s.close(true);
+            }
+        }
+
+        boolean send(int type, int id, byte[] b) {
+            return send(type, id, b, 0, b.length);
+        }
+
+        // 各流的泵线程与读线程共用输出, 整帧在锁内写出; 隧道已断开时返回 false
+        boolean send(int type, int id, byte[] b, int off, int len) {
+            try {
+                synchronized (out) {
+                    out.write(type);
+                    out.writeInt(id);
+                    out.writeInt(len);
+                    out.write(b, off, len);
+                    out.flush();
+                }
+                return true;
+            } catch (IOException e) {
+                try { socket.close(); } catch (IOException ignored) {}
+                return false;
+            }
+        }
+    }
+
+    static final class MuxStream implements Runnable {
+        // 写出队列中的客户端 FIN 标记
+        static final byte[] END = new byte[0];
+        final MuxTunnel tunnel;
+        final int id;
+        final Socket target;
+        final Flow flow;
+        final Watch watch;
+        private int credit = MUX_WINDOW;
+        private int consumed;
+        private boolean closed, inputDone, outputDone;
+        // 待写往目标的数据; 额度写出后才归还, 队列总量不超过 MUX_WINDOW
+        private final Queue<byte[]> pending = new ConcurrentLinkedQueue<byte[]>();
+        private final AtomicBoolean writing = new AtomicBoolean();
+        private final Runnable writer = new Runnable() {
+            public void run() {
+                drain();
+            }
+        };
+
+        MuxStream(MuxTunnel tunnel, int id, Socket target, Flow flow) {
+            this.tunnel = tunnel;
+            this.id = id;
+            this.target = target;
+            this.flow = flow;
+            // 超时回收时向客户端发 RST, 而不只是关闭目标连接
+            this.watch = REAPER.watch(new Watch(null) {
+                void close() {
+                    super.close();
+                    MuxStream.this.close(true);
+                }
+            });
+            watch.relaying(target);
+            METRICS.muxActive.incrementAndGet();
+        }
+
+        // 目标 -> 隧道, 额度耗尽时等待客户端归还
+        public void run() {
+            byte[] buf = new byte[MUX_FRAME];
+            byte[] packed = tunnel.deflate ? new byte[MUX_FRAME] : null;
+            BlockCodec.Backoff backoff = new BlockCodec.Backoff();
+            try {
+                InputStream in = target.getInputStream();
+                int allowed;
+                while ((allowed = awaitCredit()) > 0) {
+                    int n = in.read(buf, 0, Math.min(allowed, buf.length));
+                    if (n < 0) {
+                        tunnel.send(MUX_FIN, id, NO_BYTES);
+                        finOutput();
+                        return;
+                    }
+                    synchronized (this) {
+                        credit -= n;
+                    }
+                    watch.touch();
+                    METRICS.bytesOut.addAndGet(n);
+                    for (int off = 0; off < n; ) {
+                        int k = SHAPER.acquire(flow, n - off);
+                        int z = packed == null ? 0 : CODEC.deflate(backoff, buf, off, k, packed);
+                        if (!(z > 0 ? tunnel.send(MUX_ZDATA, id, packed, 0, z) : tunnel.send(MUX_DATA, id, buf, off, k))) {
+                            close(false);
+                            return;
+                        }
+                        off += k;
+                    }
+                }
+            } catch (IOException e) {
+                close(true);
+            }
+        }
+
+        private synchronized int awaitCredit() {
+            while (credit <= 0 && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    return 0;
+                }
+            }
+            return closed ? 0 : credit;
+        }
+
+        synchronized void grant(int n) {
+            credit += n;
+            notifyAll();
+        }
+
+        // 读线程的缓冲区会复用, 拷贝后入队
+        void write(byte[] b, int len) {
+            byte[] data = new byte[len];
+            System.arraycopy(b, 0, data, 0, len);
+            pending.add(data);
+            schedule();
+        }
+
+        // 客户端不再发送: 排在已入队的数据之后半关闭目标写方向
+        void finInput() {
+            pending.add(END);
+            schedule();
+        }
+
+        // 同一流同时只有一个写出任务, 保证顺序; 中继线程池已满时由读线程直接写出
+        private void schedule() {
+            if (writing.compareAndSet(false, true) && !spawn(relays, writer)) {
+                drain();
+            }
+        }
+
+        // 放开标记后再查一次队列, 避免漏掉刚入队的数据
+        private void drain() {
+            do {
+                byte[] b;
+                while ((b = pending.poll()) != null) {
+                    if (b == END) {
+                        finishInput();
+                    } else {
+                        deliver(b);
+                    }
+                }
+                writing.set(false);
+            } while (!pending.isEmpty() && writing.compareAndSet(false, true));
+        }
+
+        // 整形按记账处理, 与读线程直接写出时一致; 写出后归还额度
+        private void deliver(byte[] b) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+            }
+            int len = b.length;
+            watch.touch();
+            SHAPER.charge(flow, len);
+            try {
+                target.getOutputStream().write(b);
+            } catch (IOException e) {
+                close(true);
+                return;
+            }
+            METRICS.bytesIn.addAndGet(len);
+            int returned;
+            synchronized (this) {
+                consumed += len;
+                if (consumed < MUX_WINDOW / 2) {
+                    return;
+                }
+                returned = consumed;
+                consumed = 0;
+            }
+            tunnel.send(MUX_CREDIT, id, new byte[]{(byte) (returned >>> 24), (byte) (returned >>> 16),
+                    (byte) (returned >>> 8), (byte) returned});
+        }
+
+        // 半关闭目标写方向, 两个方向都结束后释放
+        private void finishInput() {
+            try {
+                target.shutdownOutput();
+            } catch (IOException ignored) {
+            }
+            boolean done;
+            synchronized (this) {
+                inputDone = true;
+                done = outputDone;
+            }
+            if (done) {
+                close(false);
+            } else {
+                watch.half();
+            }
+        }
+
+        private void finOutput() {
+            boolean done;
+            synchronized (this) {
+                outputDone = true;
+                done = inputDone;
+            }
+            if (done) {
+                close(false);
+            } else {
+                watch.half();
+            }
+        }
+
+        void close(boolean reset) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                notifyAll();
+            }
+            pending.clear();
+            METRICS.muxActive.decrementAndGet();
+            SHAPER.release(flow);
+            REAPER.watched.remove(watch);
+            tunnel.streams.remove(Integer.valueOf(id));
+            try { target.close(); } catch (IOException ignored) {}
+            if (reset) {
+                tunnel.send(MUX_RST, id, NO_BYTES);
+            }
+        }
+    }
+
+    // 线程池未创建、已满或已停止时返回 false, 由调用方按失败处理; 不退回独立线程, 以免绕过准入上限
+    static boolean spawn(ThreadPoolExecutor pool, Runnable task) {
+        if (pool == null) {
+            return false;
+        }
+        try {
+            pool.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    interface ResolveCallback {
+        void resolved(InetAddress[] addrs, IOException error);
+    }
+
+    // 域名解析: 有界 LRU 正/负缓存 + 同名并发查询合并 + 独立解析线程池
+    static final class Resolver {
+        private static final int MAX_ENTRIES = 1024;
+        private final long positiveTtl = ttl("networkaddress.cache.ttl", 30) * 1000;
+        private final long negativeTtl = ttl("networkaddress.cache.negative.ttl", 10) * 1000;
+        private final Map<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(64, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+        private final Map<String, List<ResolveCallback>> inflight = new HashMap<String, List<ResolveCallback>>();
+        private final ThreadPoolExecutor pool;
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong negativeHits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong coalesced = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+
+        Resolver(int threads, int queueSize) {
+            pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), named("SOCKS-DNS"));
+        }
+
+        // 沿用 JVM 的 networkaddress.cache.* 策略; 未设置或为永久缓存(-1)时使用默认值
+        private static long ttl(String name, long def) {
+            try {
+                String v = java.security.Security.getProperty(name);
+                if (v != null && Long.parseLong(v.trim()) >= 0) {
+                    return Long.parseLong(v.trim());
+                }
+            } catch (Exception ignored) {
+            }
+            return def;
+        }
+
+        void resolve(final String host, ResolveCallback cb) {
+            final String key = host.toLowerCase();
+            CacheEntry e;
+            synchronized (cache) {
+                e = cache.get(key);
+                if (e != null && e.expires < System.currentTimeMillis()) {
+                    cache.remove(key);
+                    e = null;
+                }
+            }
+            if (e != null) {
+                (e.addrs != null ? hits : negativeHits).incrementAndGet();
+                cb.resolved(e.addrs, e.addrs != null ? null : new UnknownHostException(host));
+                return;
+            }
+            synchronized (inflight) {
+                List<ResolveCallback> waiters = inflight.get(key);
+                if (waiters != null) {
+                    coalesced.incrementAndGet();
+                    waiters.add(cb);
+                    return;
+                }
+                waiters = new ArrayList<ResolveCallback>();
+                waiters.add(cb);
+                inflight.put(key, waiters);
+            }
+            misses.incrementAndGet();
+            try {
+                pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            long start = System.nanoTime();
+                            InetAddress[] addrs;
+                            try {
+                                addrs = InetAddress.getAllByName(host);
+                            } finally {
+                                METRICS.dnsLookups.incrementAndGet();
+                                METRICS.dnsMicros.addAndGet((System.nanoTime() - start) / 1000);
+                            }
+                            complete(key, addrs, null, true);
+                        } catch (UnknownHostException e) {
+                            failures.incrementAndGet();
+                            complete(key, null, e, true);
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                            complete(key, null, new UnknownHostException(host + ": " + e), false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                failures.incrementAndGet();
+                complete(key, null, new UnknownHostException("resolver busy: " + host), false);
+            }
+        }
+
+        InetAddress[] resolve(String host, long timeoutMs) throws IOException {
+            final InetAddress[][] result = new InetAddress[1][];
+            final IOException[] error = new IOException[1];
+            final CountDownLatch done = new CountDownLatch(1);
+            resolve(host, new ResolveCallback() {
+                public void resolved(InetAddress[] addrs, IOException e) {
+                    result[0] = addrs;
+                    error[0] = e;
+                    done.countDown();
+                }
+            });
+            try {
+                if (!done.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                    timeouts.incrementAndGet();
+                    throw new SocketTimeoutException("DNS timeout: " + host);
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("DNS interrupted: " + host);
+            }
+            if (error[0] != null) {
+                throw error[0];
+            }
+            return result[0];
+        }
+
+        private void complete(String key, InetAddress[] addrs, IOException error, boolean cacheable) {
+            long ttl = addrs != null ? positiveTtl : negativeTtl;
+            if (cacheable && ttl > 0) {
+                synchronized (cache) {
+                    cache.put(key, new CacheEntry(addrs, System.currentTimeMillis() + ttl));
+                }
+            }
+            List<ResolveCallback> waiters;
+            synchronized (inflight) {
+                waiters = inflight.remove(key);
+            }
+            if (waiters == null) {
+                return;
+            }
+            for (ResolveCallback cb : waiters) {
+                try {
+                    cb.resolved(addrs, error);
+                } catch (RuntimeException ignored) {
+                }
+            }
+        }
+
+        String stats() {
+            int size;
+            synchronized (cache) {
+                size = cache.size();
+            }
+            return "hits=" + hits.get() + ";negative_hits=" + negativeHits.get() + ";misses=" + misses.get()
+                    + ";coalesced=" + coalesced.get() + ";failures=" + failures.get() + ";timeouts=" + timeouts.get()
+                    + ";size=" + size;
+        }
+
+        void shutdown() {
+            pool.shutdownNow();
+        }
+    }
+
+    static final class CacheEntry {
+        final InetAddress[] addrs;
+        final long expires;
+
+        CacheEntry(InetAddress[] addrs, long expires) {
+            this.addrs = addrs;
+            this.expires = expires;
+        }
+    }
+
+    // 运行计数: 全部为原子变量, 热路径不加锁; 握手耗时从 accept 起计, 按毫秒分桶
+    static final class Metrics {
+        static final long[] HANDSHAKE_BUCKETS_MS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000};
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicLong accepted = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+        final AtomicLong handshakes = new AtomicLong();
+        final AtomicLong handshakeFailures = new AtomicLong();
+        final AtomicLong handshakeMicros = new AtomicLong();
+        final AtomicLong dnsLookups = new AtomicLong();
+        final AtomicLong dnsMicros = new AtomicLong();
+        final AtomicInteger muxTunnels = new AtomicInteger();
+        final AtomicInteger muxActive = new AtomicInteger();
+        final AtomicLong muxStreams = new AtomicLong();
+        final AtomicLongArray handshakeBuckets = new AtomicLongArray(HANDSHAKE_BUCKETS_MS.length + 1);
+        volatile long startedAt = System.currentTimeMillis();
+
+        void handshake(long acceptedAt) {
+            long micros = (System.nanoTime() - acceptedAt) / 1000;
+            int i = 0;
+            while (i < HANDSHAKE_BUCKETS_MS.length && micros > HANDSHAKE_BUCKETS_MS[i] * 1000) {
+                i++;
+            }
+            handshakeBuckets.incrementAndGet(i);
+            handshakeMicros.addAndGet(micros);
+            handshakes.incrementAndGet();
+        }
+
+        // 分桶输出为累计值, 与 Prometheus histogram 的 le 语义一致
+        String snapshot(Resolver resolver) {
+            StringBuffer sb = new StringBuffer();
+            sb.append("uptime_ms=").append(System.currentTimeMillis() - startedAt)
+                    .append(";active=").append(active.get())
+                    .append(";accepted=").append(accepted.get())
+                    .append(";rejected=").append(rejected.get())
+                    .append(";bytes_in=").append(bytesIn.get())
+                    .append(";bytes_out=").append(bytesOut.get())
+                    .append(";handshakes=").append(handshakes.get())
+                    .append(";handshake_failures=").append(handshakeFailures.get())
+                    .append(";handshake_us=").append(handshakeMicros.get());
+            long cumulative = 0;
+            for (int i = 0; i < handshakeBuckets.length(); i++) {
+                cumulative += handshakeBuckets.get(i);
+                sb.append(";hs_le_").append(i < HANDSHAKE_BUCKETS_MS.length ? String.valueOf(HANDSHAKE_BUCKETS_MS[i]) : "inf")
+                        .append('=').append(cumulative);
+            }
+            sb.append(";mux_tunnels=").append(muxTunnels.get())
+                    .append(";mux_active=").append(muxActive.get())
+                    .append(";mux_streams=").append(muxStreams.get());
+            sb.append(";dns_lookups=").append(dnsLookups.get())
+                    .append(";dns_us=").append(dnsMicros.get());
+            if (resolver != null) {
+                sb.append(";dns_").append(resolver.stats().replace(";", ";dns_"));
+            }
+            return sb.toString();
+        }
+    }
+
+    static final class BufferPool {
+        static final int[] SIZES = {2048, 8192, 32768, 65536};
+        private final ConcurrentLinkedQueue<byte[]>[] free;
+        private final AtomicLong pooledBytes = new AtomicLong();
+        private final long capacity;
+
+        @SuppressWarnings("unchecked")
+        BufferPool(long capacity) {
+            this.capacity = capacity;
+            free = (ConcurrentLinkedQueue<byte[]>[]) new ConcurrentLinkedQueue<?>[SIZES.length];
+            for (int i = 0; i < SIZES.length; i++) {
+                free[i] = new ConcurrentLinkedQueue<byte[]>();
+            }
+        }
+
+        byte[] acquire(int cls) {
+            byte[] b = free[cls].poll();
+            if (b == null) {
+                return new byte[SIZES[cls]];
+            }
+            pooledBytes.addAndGet(-b.length);
+            return b;
+        }
+
+        void release(byte[] b) {
+            for (int i = 0; i < SIZES.length; i++) {
+                if (SIZES[i] == b.length) {
+                    if (pooledBytes.addAndGet(b.length) > capacity) {
+                        pooledBytes.addAndGet(-b.length);
+                        return;
+                    }
+                    free[i].offer(b);
+                    return;
+                }
+            }
+        }
+    }
+
+    // 按实际读取量调整缓冲区: 连续读满则升级, 长期只用到一小部分则降级
+    static final class SizeClass {
+        int cls;
+        private int full;
+        private int small;
+
+        boolean observe(int n, int capacity) {
+            if (n >= capacity) {
+                small = 0;
+                if (++full >= 2 && cls < BufferPool.SIZES.length - 1) {
+                    cls++;
+                    full = 0;
+                    return true;
+                }
+            } else if (n < capacity / 4) {
+                full = 0;
+                if (++small >= 16 && cls > 0) {
+                    cls--;
+                    small = 0;
+                    return true;
+                }
+            } else {
+                full = 0;
+                small = 0;
+            }
+            return false;
+        }
+    }
+
+    // 多路复用隧道的块压缩: 每个 DATA 帧独立 deflate, 不依赖前后帧; 压缩后未省下 1/8 时原样发送,
+    // 并按指数退避跳过该流后续若干块 (最多 64 块) 再试, 已压缩或加密的流基本不耗压缩 CPU
+    static final class BlockCodec {
+        static final int MIN_BLOCK = 256;
+        static final int MAX_SKIP = 64;
+        // Deflater 内部状态约数百 KB, 按并发度复用而不是每流一个
+        private final ConcurrentLinkedQueue<Deflater> idle = new ConcurrentLinkedQueue<Deflater>();
+        final AtomicLong outRaw = new AtomicLong();
+        final AtomicLong outWire = new AtomicLong();
+        final AtomicLong inRaw = new AtomicLong();
+        final AtomicLong inWire = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+        final AtomicLong deflateNanos = new AtomicLong();
+        final AtomicLong inflateNanos = new AtomicLong();
+
+        static final class Backoff {
+            int skip;
+            int next = 1;
+        }
+
+        // 返回压缩后的长度, 0 表示本块应原样发送
+        int deflate(Backoff b, byte[] src, int off, int len, byte[] dst) {
+            outRaw.addAndGet(len);
+            if (len < MIN_BLOCK || b.skip > 0) {
+                if (b.skip > 0) {
+                    b.skip--;
+                    skipped.incrementAndGet();
+                }
+                outWire.addAndGet(len);
+                return 0;
+            }
+            Deflater d = idle.poll();
+            if (d == null) {
+                d = new Deflater(Deflater.BEST_SPEED, true);
+            }
+            long begin = System.nanoTime();
+            d.setInput(src, off, len);
+            d.finish();
+            int limit = Math.min(dst.length, len - len / 8);
+            int n = 0;
+            while (!d.finished() && n < limit) {
+                n += d.deflate(dst, n, limit - n);
+            }
+            boolean ok = d.finished() && n < limit;
+            d.reset();
+            idle.offer(d);
+            deflateNanos.addAndGet(System.nanoTime() - begin);
+            if (!ok) {
+                b.skip = b.next;
+                b.next = Math.min(MAX_SKIP, b.next * 2);
+                outWire.addAndGet(len);
+                return 0;
+            }
+            b.next = 1;
+            outWire.addAndGet(n);
+            return n;
+        }
+
+        int inflate(Inflater inf, byte[] src, int len, byte[] dst) throws IOException {
+            long begin = System.nanoTime();
+            try {
+                inf.setInput(src, 0, len);
+                int n = 0;
+                while (!inf.finished() && n < dst.length) {
+                    int k = inf.inflate(dst, n, dst.length - n);
+                    if (k == 0 && (inf.needsInput() || inf.needsDictionary())) {
+                        break;
+                    }
+                    n += k;
+                }
+                if (!inf.finished()) {
+                    throw new ProtocolException("mux block too large or truncated");
+                }
+                inWire.addAndGet(len);
+                inRaw.addAndGet(n);
+                return n;
+            } catch (DataFormatException e) {
+                throw new ProtocolException("bad mux block: " + e.getMessage());
+            } finally {
+                inf.reset();
+                inflateNanos.addAndGet(System.nanoTime() - begin);
+            }
+        }
+
+        String stats() {
+            return "z_out_raw=" + outRaw.get() + ";z_out_wire=" + outWire.get() + ";z_in_raw=" + inRaw.get()
+                    + ";z_in_wire=" + inWire.get() + ";z_skipped=" + skipped.get()
+                    + ";z_deflate_us=" + deflateNanos.get() / 1000 + ";z_inflate_us=" + inflateNanos.get() / 1000;
+        }
+    }
+
+    // 带宽整形: 全局令牌桶限制经数据库主机转发的总流量 (两个方向都占用其网卡), 每个连接另有独立令牌桶.
+    // 全局额度紧张时按开始时间公平排队: 各连接的虚拟完成时间按 字节数/权重 推进, 积压连接中虚拟时间
+    // 落后者优先取得额度, 大流量下载不会饿死交互连接. 两个速率都为 0 时不加锁直接放行
+    static final class Shaper {
+        static final int QUANTUM = 16 * 1024;
+        // 额度不足此值时不放行, 避免以零碎小块写出空转
+        static final int MIN_GRANT = 4 * 1024;
+        // 最近这段时间内申请过额度的连接视为仍在排队; 空闲连接占位期间积下的令牌由 burst 吸收
+        static final long BACKLOG_NANOS = 20L * 1000 * 1000;
+        volatile long globalRate;
+        volatile long flowRate;
+        volatile long burst = 64 * 1024;
+        private Map<Integer, Integer> weights = new HashMap<Integer, Integer>();
+        private final List<Flow> backlog = new ArrayList<Flow>();
+        private double tokens = burst;
+        private long refilledAt = System.nanoTime();
+        private double virtualTime;
+        final AtomicLong waits = new AtomicLong();
+        final AtomicInteger flows = new AtomicInteger();
+
+        boolean enabled() {
+            return globalRate > 0 || flowRate > 0;
+        }
+
+        synchronized Flow flow(int port) {
+            Integer w = weights.get(Integer.valueOf(port));
+            return new Flow(w == null ? 1 : w.intValue(), burst);
+        }
+
+        // 返回本次可写出的字节数, 0 表示需稍后重试; 不阻塞, 供事件循环使用
+        int tryAcquire(Flow f, int n) {
+            if (!enabled()) {
+                return n;
+            }
+            synchronized (this) {
+                return grant(f, n);
+            }
+        }
+
+        private int grant(Flow f, int n) {
+            long now = System.nanoTime();
+            refill(now);
+            f.refill(now, flowRate, burst);
+            long allowed = Math.min(n, QUANTUM);
+            if (flowRate > 0) {
+                allowed = Math.min(allowed, (long) f.tokens);
+            }
+            if (globalRate > 0) {
+                allowed = Math.min(allowed, (long) tokens);
+            }
+            if (allowed < Math.min(n, MIN_GRANT) || globalRate > 0 && behind(f, now)) {
+                allowed = 0;
+            }
+            f.seenAt = now;
+            if (!f.queued) {
+                f.queued = true;
+                backlog.add(f);
+            }
+            if (allowed <= 0) {
+                waits.incrementAndGet();
+                return 0;
+            }
+            double start = Math.max(f.finish, virtualTime);
+            f.finish = start + (double) allowed / f.weight;
+            virtualTime = start;
+            tokens -= allowed;
+            f.tokens -= allowed;
+            notifyAll();
+            return (int) allowed;
+        }
+
+        // 阻塞版本, 供 BIO 与多路复用的转发线程使用
+        int acquire(Flow f, int n) throws InterruptedIOException {
+            if (!enabled()) {
+                return n;
+            }
+            synchronized (this) {
+                int allowed;
+                while ((allowed = grant(f, n)) == 0) {
+                    try {
+                        wait(pauseMillis(f, Math.min(n, MIN_GRANT)));
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("shaper wait interrupted");
+                    }
+                }
+                return allowed;
+            }
+        }
+
+        // 无法等待的写出 (多路复用读线程写往目标) 先行扣除额度, 欠下的由后续写出偿还
+        synchronized void charge(Flow f, int n) {
+            if (!enabled()) {
+                return;
+            }
+            long now = System.nanoTime();
+            refill(now);
+            f.refill(now, flowRate, burst);
+            tokens -= n;
+            f.tokens -= n;
+            f.finish = Math.max(f.finish, virtualTime) + (double) n / f.weight;
+        }
+
+        // 已获准但未能写出 (套接字缓冲已满) 的部分退回
+        synchronized void refund(Flow f, int n) {
+            if (!enabled()) {
+                return;
+            }
+            tokens = Math.min(burst, tokens + n);
+            f.tokens = Math.min(burst, f.tokens + n);
+            f.finish -= (double) n / f.weight;
+        }
+
+        synchronized void release(Flow f) {
+            flows.decrementAndGet();
+            if (f.queued) {
+                f.queued = false;
+                backlog.remove(f);
+            }
+        }
+
+        // 其它仍在排队的连接虚拟开始时间更早时让出本轮额度
+        private boolean behind(Flow f, long now) {
+            double start = Math.max(f.finish, virtualTime);
+            for (Iterator<Flow> it = backlog.iterator(); it.hasNext(); ) {
+                Flow g = it.next();
+                if (now - g.seenAt > BACKLOG_NANOS) {
+                    g.queued = false;
+                    it.remove();
+                } else if (g != f && Math.max(g.finish, virtualTime) < start) {
+                    // 受自身限速卡住的连接用不上全局额度, 不必让
+                    g.refill(now, flowRate, burst);
+                    if (flowRate == 0 || g.tokens >= 1) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void refill(long now) {
+            if (globalRate > 0) {
+                tokens = Math.min(burst, tokens + globalRate * ((now - refilledAt) / 1e9));
+            }
+            refilledAt = now;
+        }
+
+        // 按缺口估算补足时间, 限制在 1~20ms 内以便及时让给排在前面的连接
+        private long pauseMillis(Flow f, int need) {
+            double deficit = 1;
+            long rate = Long.MAX_VALUE;
+            if (globalRate > 0 && tokens < need) {
+                deficit = need - tokens;
+                rate = globalRate;
+            }
+            if (flowRate > 0 && f.tokens < need && (need - f.tokens) / flowRate > deficit / rate) {
+                deficit = need - f.tokens;
+                rate = flowRate;
+            }
+            long ms = rate == Long.MAX_VALUE ? 1 : (long) Math.ceil(deficit * 1000 / rate);
+            return Math.max(1, Math.min(20, ms));
+        }
+
+        // 格式: global=10m,flow=2m,burst=256k,ports=22:8|3389:8; 未出现的项保持不变, off 关闭整形
+        synchronized void reset() {
+            globalRate = 0;
+            flowRate = 0;
+            burst = 64 * 1024;
+            weights = new HashMap<Integer, Integer>();
+            tokens = Math.min(tokens, burst);
+            notifyAll();
+        }
+
+        synchronized void configure(String spec) {
+            if (spec == null || spec.trim().length() == 0) {
+                return;
+            }
+            if ("off".equalsIgnoreCase(spec.trim())) {
+                globalRate = 0;
+                flowRate = 0;
+                notifyAll();
+                return;
+            }
+            long g = globalRate, fl = flowRate, b = burst;
+            Map<Integer, Integer> w = weights;
+            String[] items = spec.split(",");
+            for (int i = 0; i < items.length; i++) {
+                String item = items[i].trim();
+                int eq = item.indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("bad shaping item: " + item);
+                }
+                String key = item.substring(0, eq).trim().toLowerCase();
+                String value = item.substring(eq + 1).trim();
+                if ("global".equals(key)) {
+                    g = parseSize(value);
+                } else if ("flow".equals(key)) {
+                    fl = parseSize(value);
+                } else if ("burst".equals(key)) {
+                    b = parseSize(value);
+                } else if ("ports".equals(key)) {
+                    // 空值清除全部端口权重
+                    w = new HashMap<Integer, Integer>();
+                    String[] pairs = value.length() == 0 ? new String[0] : value.split("\\|");
+                    for (int j = 0; j < pairs.length; j++) {
+                        String[] pw = pairs[j].trim().split(":");
+                        if (pw.length != 2) {
+                            throw new IllegalArgumentException("bad port weight: " + pairs[j]);
+                        }
+                        w.put(Integer.valueOf(pw[0].trim()), Integer.valueOf(Math.max(1, Integer.parseInt(pw[1].trim()))));
+                    }
+                } else {
+                    throw new IllegalArgumentException("unknown shaping item: " + key);
+                }
+            }
+            burst = Math.max(QUANTUM, b);
+            globalRate = g;
+            flowRate = fl;
+            weights = w;
+            tokens = Math.min(tokens, burst);
+            notifyAll();
+        }
+
+        static long parseSize(String s) {
+            s = s.trim().toLowerCase();
+            long unit = 1;
+            if (s.endsWith("k")) {
+                unit = 1024;
+            } else if (s.endsWith("m")) {
+                unit = 1024 * 1024;
+            } else if (s.endsWith("g")) {
+                unit = 1024L * 1024 * 1024;
+            }
+            if (unit > 1) {
+                s = s.substring(0, s.length() - 1);
+            }
+            long v = Long.parseLong(s) * unit;
+            if (v < 0) {
+                throw new IllegalArgumentException("negative size: " + s);
+            }
+            return v;
+        }
+
+        synchronized String stats() {
+            return "shape_global=" + globalRate + ";shape_flow=" + flowRate + ";shape_burst=" + burst
+                    + ";shape_flows=" + flows.get() + ";shape_backlog=" + backlog.size()
+                    + ";shape_waits=" + waits.get();
+        }
+    }
+
+    // 单个连接的整形状态, 两个方向共用
+    static final class Flow {
+        final int weight;
+        double tokens;
+        long refilledAt = System.nanoTime();
+        double finish;
+        long seenAt;
+        boolean queued;
+
+        Flow(int weight, long burst) {
+            this.weight = weight;
+            this.tokens = burst;
+            SHAPER.flows.incrementAndGet();
+        }
+
+        void refill(long now, long rate, long burst) {
+            if (rate > 0) {
+                tokens = Math.min(burst, tokens + rate * ((now - refilledAt) / 1e9));
+            }
+            refilledAt = now;
+        }
+    }
+
+    // 套接字参数, 在连接建立前 (目标连接) 或接入后立即 (客户端连接) 设置; 缓冲区为 0 时用系统默认.
+    // 运行中调整只影响此后新建的连接
+    static final class Tuning {
+        volatile boolean noDelay = true;
+        volatile boolean keepAlive;
+        volatile int receiveBuffer;
+        volatile int sendBuffer;
+        // 以下仅用于查询, 启动时确定 (会话上限可在运行中调整)
+        volatile int sessions;
+        volatile int backlog;
+        volatile int queue;
+
+        void reset() {
+            noDelay = true;
+            keepAlive = false;
+            receiveBuffer = 0;
+            sendBuffer = 0;
+        }
+
+        void apply(Socket s) throws SocketException {
+            s.setTcpNoDelay(noDelay);
+            s.setKeepAlive(keepAlive);
+            if (receiveBuffer > 0) {
+                s.setReceiveBufferSize(receiveBuffer);
+            }
+            if (sendBuffer > 0) {
+                s.setSendBufferSize(sendBuffer);
+            }
+        }
+
+        String stats() {
+            return "opt_sessions=" + sessions + ";opt_backlog=" + backlog + ";opt_queue=" + queue
+                    + ";opt_nodelay=" + (noDelay ? 1 : 0) + ";opt_keepalive=" + (keepAlive ? 1 : 0)
+                    + ";opt_rcvbuf=" + receiveBuffer + ";opt_sndbuf=" + sendBuffer;
+        }
+    }
+
+    // 超时回收: 握手、建连、空闲与半关闭各有时限, 0 表示不限. 阻塞模式的连接与复用流登记为 Watch,
+    // 由回收线程每秒检查, 到期时关闭套接字使阻塞中的读写线程退出; NIO 会话由事件循环按同样的规则巡检
+    static final class Reaper implements Runnable {
+        static final long HANDSHAKE_MS = 10000;
+        static final long CONNECT_MS = 10000;
+        static final long IDLE_MS = 600000;
+        static final long HALF_MS = 60000;
+        volatile long handshakeMs = HANDSHAKE_MS;
+        volatile long connectMs = CONNECT_MS;
+        volatile long idleMs = IDLE_MS;
+        volatile long halfMs = HALF_MS;
+        final Set<Watch> watched = Collections.synchronizedSet(new HashSet<Watch>());
+        final AtomicLong handshakes = new AtomicLong();
+        final AtomicLong connects = new AtomicLong();
+        final AtomicLong idles = new AtomicLong();
+        final AtomicLong halves = new AtomicLong();
+        // 向对端传递 FIN 的次数
+        final AtomicLong halfCloses = new AtomicLong();
+        private Thread thread;
+
+        // 退出判断与启动在同一把锁下: 停止后立即重启时, 旧线程要么继续运行, 要么先退出再由此处新建
+        synchronized void start() {
+            if (thread == null) {
+                thread = new Thread(this, "SOCKS-Reaper");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    // 继续按 running 判断是否退出
+                }
+                synchronized (this) {
+                    if (!running) {
+                        thread = null;
+                        return;
+                    }
+                }
+                long now = System.currentTimeMillis();
+                Watch[] all;
+                synchronized (watched) {
+                    all = watched.toArray(new Watch[watched.size()]);
+                }
+                for (int i = 0; i < all.length; i++) {
+                    AtomicLong counter = expired(all[i].phase, all[i].since, all[i].last, now);
+                    if (counter != null) {
+                        counter.incrementAndGet();
+                        all[i].close();
+                    }
+                }
+            }
+        }
+
+        synchronized void reset() {
+            handshakeMs = HANDSHAKE_MS;
+            connectMs = CONNECT_MS;
+            idleMs = IDLE_MS;
+            halfMs = HALF_MS;
+        }
+
+        Watch watch(Watch w) {
+            watched.add(w);
+            return w;
+        }
+
+        // 到期时返回应计入的计数器; 建连阶段由 connectRace/NIO 期限自行控制
+        AtomicLong expired(int phase, long since, long last, long now) {
+            if (phase == Watch.HANDSHAKE) {
+                return handshakeMs > 0 && now - since > handshakeMs ? handshakes : null;
+            }
+            if (phase == Watch.RELAY) {
+                return idleMs > 0 && now - last > idleMs ? idles : null;
+            }
+            if (phase == Watch.HALF) {
+                return halfMs > 0 && now - last > halfMs ? halves : null;
+            }
+            return null;
+        }
+
+        int connectTimeout() {
+            long ms = connectMs;
+            return ms > 0 ? (int) Math.min(Integer.MAX_VALUE, ms) : Integer.MAX_VALUE;
+        }
+
+        // 格式: handshake=10s,connect=10s,idle=10m,half=60s; 数值可带 ms/s/m/h 后缀, 不带时为毫秒; 未出现的项保持不变
+        synchronized void configure(String spec) {
+            if (spec == null || spec.trim().length() == 0) {
+                return;
+            }
+            long h = handshakeMs, c = connectMs, i = idleMs, hf = halfMs;
+            String[] items = spec.split(",");
+            for (int k = 0; k < items.length; k++) {
+                String item = items[k].trim();
+                int eq = item.indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("bad timeout item: " + item);
+                }
+                String key = item.substring(0, eq).trim().toLowerCase();
+                long value = parseDuration(item.substring(eq + 1));
+                if ("handshake".equals(key)) {
+                    h = value;
+                } else if ("connect".equals(key)) {
+                    c = value;
+                } else if ("idle".equals(key)) {
+                    i = value;
+                } else if ("half".equals(key)) {
+                    hf = value;
+                } else {
+                    throw new IllegalArgumentException("unknown timeout item: " + key);
+                }
+            }
+            handshakeMs = h;
+            connectMs = c;
+            idleMs = i;
+            halfMs = hf;
+        }
+
+        static long parseDuration(String s) {
+            s = s.trim().toLowerCase();
+            long unit = 1;
+            if (s.endsWith("ms")) {
+                s = s.substring(0, s.length() - 2);
+            } else if (s.endsWith("s")) {
+                unit = 1000;
+            } else if (s.endsWith("m")) {
+                unit = 60 * 1000;
+            } else if (s.endsWith("h")) {
+                unit = 3600 * 1000;
+            }
+            if (unit > 1) {
+                s = s.substring(0, s.length() - 1);
+            }
+            long v = Long.parseLong(s.trim()) * unit;
+            if (v < 0) {
+                throw new IllegalArgumentException("negative timeout: " + s);
+            }
+            return v;
+        }
+
+        String stats() {
+            return "timeout_handshake_ms=" + handshakeMs + ";timeout_connect_ms=" + connectMs
+                    + ";timeout_idle_ms=" + idleMs + ";timeout_half_ms=" + halfMs
+                    + ";reaped_handshake=" + handshakes.get() + ";reaped_connect=" + connects.get()
+                    + ";reaped_idle=" + idles.get() + ";reaped_half=" + halves.get()
+                    + ";half_closes=" + halfCloses.get() + ";watched=" + watched.size();
+        }
+    }
+
+    // 阻塞模式下一个连接 (或复用流) 的超时登记, 两个中继方向共用
+    static class Watch {
+        static final int HANDSHAKE = 0, CONNECT = 1, RELAY = 2, HALF = 3;
+        final Socket client;
+        volatile Socket target;
+        volatile int phase = HANDSHAKE;
+        final long since = System.currentTimeMillis();
+        volatile long last = since;
+        // 尚未读到 EOF 的方向数
+        private int open = 2;
+        private boolean closed;
+
+        Watch(Socket client) {
+            this.client = client;
+        }
+
+        void touch() {
+            last = System.currentTimeMillis();
+        }
+
+        void greeted() {
+            touch();
+            phase = RELAY;
+        }
+
+        void relaying(Socket target) {
+            this.target = target;
+            touch();
+            phase = RELAY;
+        }
+
+        void half() {
+            phase = HALF;
+            REAPER.halfCloses.incrementAndGet();
+        }
+
+        // 一个方向读到 EOF: 向对端传递 FIN, 两个方向都结束后关闭
+        void finish(Socket to) {
+            boolean done;
+            try {
+                to.shutdownOutput();
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            synchronized (this) {
+                done = --open == 0;
+            }
+            if (done) {
+                close();
+            } else {
+                half();
+            }
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                notifyAll();
+            }
+            REAPER.watched.remove(this);
+            closeQuietly(client);
+            closeQuietly(target);
+        }
+
+        synchronized void awaitClosed() {
+            while (!closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+            }
+        }
+    }
+
+    static final class Request {
+        byte cmd;
+        byte atyp;
+        byte[] addr;
+        String host;
+        int port;
+        int length;
+    }
+
+    static int parseGreeting(byte[] b, int off, int len) throws IOException {
+        if (len < 2) {
+            return 0;
+        }
+        if (b[off] != 0x05) {
+            throw new ProtocolException("Unsupported SOCKS version: " + b[off]);
+        }
+        int total = 2 + (b[off + 1] & 0xFF);
+        return len < total ? 0 : total;
+    }
+
+    static Request parseRequest(byte[] b, int off, int len) throws IOException {
+        if (len < 5) {
+            return null;
+        }
+        if (b[off] != 0x05) {
+            throw new ProtocolException("Unsupported SOCKS version: " + b[off]);
+        }
+        Request r = parseAddress(b, off, len);
+        if (r != null) {
+            r.cmd = b[off + 1];
+        }
+        return r;
+    }
+
+    // 解析第 4 字节起的 ATYP/地址/端口, 请求头与 UDP 封装头共用此布局
+    static Request parseAddress(byte[] b, int off, int len) throws IOException {
+        if (len < 5) {
+            return null;
+        }
+        Request r = new Request();
+        r.atyp = b[off + 3];
+        int addrLen;
+        int addrOff = off + 4;
+        switch (r.atyp) {
+            case 0x01:
+                addrLen = 4;
+                break;
+            case 0x03:
+                addrLen = b[off + 4] & 0xFF;
+                addrOff++;
+                break;
+            case 0x04:
+                addrLen = 16;
+                break;
+            default:
+                throw new ProtocolException("Unsupported address type: " + r.atyp);
+        }
+        int total = addrOff - off + addrLen + 2;
+        if (len < total) {
+            return null;
+        }
+        r.addr = new byte[addrLen];
+        System.arraycopy(b, addrOff, r.addr, 0, addrLen);
+        if (r.atyp == 0x03) {
+            r.host = new String(r.addr, "ISO-8859-1");
+        }
+        r.port = ((b[addrOff + addrLen] & 0xFF) << 8) | (b[addrOff + addrLen + 1] & 0xFF);
+        r.length = total;
+        return r;
+    }
+
+    static byte[] buildReply(int rep, InetSocketAddress bound) {
+        byte[] ip = bound == null || bound.getAddress() == null ? new byte[4] : bound.getAddress().getAddress();
+        int port = bound == null ? 0 : bound.getPort();
+        byte[] reply = new byte[6 + ip.length];
+        reply[0] = 0x05;
+        reply[1] = (byte) rep;
+        reply[3] = (byte) (ip.length == 16 ? 0x04 : 0x01);
+        System.arraycopy(ip, 0, reply, 4, ip.length);
+        reply[4 + ip.length] = (byte) (port >> 8);
+        reply[5 + ip.length] = (byte) (port & 0xFF);
+        return reply;
+    }
+
+    static void closeQuietly(Socket s) {
+        try {
+            if (s != null) {
+                s.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    static void closeQuietly(Channel ch) {
+        try {
+            if (ch != null) {
+                ch.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    static final class NioLoop implements Runnable {
+        final Selector selector;
+        final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        final List<NioSession> racing = new ArrayList<NioSession>();
+        // 整形额度不足而暂停写出的会话, 短间隔轮询恢复
+        final List<NioSession> throttled = new ArrayList<NioSession>();
+
+        NioLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(final SocketChannel ch, final long acceptedAt) {
+            execute(new Runnable() {
+                public void run() {
+                    try {
+                        new NioSession(NioLoop.this, ch, acceptedAt);
+                    } catch (IOException e) {
+                        METRICS.active.decrementAndGet();
+                        closeQuietly(ch);
+                    }
+                }
+            });
+        }
+
+        public void run() {
+            long lastSweep = System.currentTimeMillis();
+            try {
+                while (running) {
+                    selector.select(!throttled.isEmpty() ? 5 : racing.isEmpty() ? 1000 : 50);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioSession s = (NioSession) key.attachment();
+                        try {
+                            if (key.isValid()) {
+                                s.handle(key);
+                            }
+                        } catch (Exception e) {
+                            s.close();
+                        }
+                    }
+                    if (!throttled.isEmpty()) {
+                        for (NioSession s : throttled.toArray(new NioSession[throttled.size()])) {
+                            s.resume();
+                        }
+                    }
+                    long now = System.currentTimeMillis();
+                    if (!racing.isEmpty()) {
+                        for (NioSession s : racing.toArray(new NioSession[racing.size()])) {
+                            s.tick(now);
+                        }
+                    }
+                    if (now - lastSweep >= 1000) {
+                        lastSweep = now;
+                        for (SelectionKey key : selector.keys()) {
+                            NioSession s = (NioSession) key.attachment();
+                            if (s != null && key == s.clientKey) {
+                                s.sweep(now);
+                            }
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    NioSession s = (NioSession) key.attachment();
+                    if (s != null) {
+                        s.close();
+                    }
+                    closeQuietly(key.channel());
+                }
+                try { selector.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    static final class NioSession {
+        static final int GREETING = 0, REQUEST = 1, CONNECTING = 2, RELAY = 3, CLOSED = 4, UDP = 5;
+        final NioLoop loop;
+        final SocketChannel client;
+        final SelectionKey clientKey;
+        final long acceptedAt;
+        final SizeClass upSize = new SizeClass();
+        final SizeClass downSize = new SizeClass();
+        ByteBuffer up = ByteBuffer.wrap(BUFFERS.acquire(0));
+        ByteBuffer down = ByteBuffer.wrap(BUFFERS.acquire(0));
+        SocketChannel target;
+        UdpAssociation udp;
+        SelectionKey udpKey;
+        InetAddress[] order;
+        int targetPort;
+        int next;
+        long nextAttemptAt;
+        final List<SelectionKey> attempts = new ArrayList<SelectionKey>(2);
+        SelectionKey targetKey;
+        Flow flow;
+        boolean throttled;
+        int state = GREETING;
+        long deadline;
+        final long openedAt = System.currentTimeMillis();
+        long last = openedAt;
+        boolean clientEof, targetEof, clientOutShut, targetOutShut;
+
+        NioSession(NioLoop loop, SocketChannel client, long acceptedAt) throws IOException {
+            this.loop = loop;
+            this.client = client;
+            this.acceptedAt = acceptedAt;
+            client.configureBlocking(false);
+            TUNING.apply(client.socket());
+            clientKey = client.register(loop.selector, SelectionKey.OP_READ, this);
+        }
+
+        void handle(SelectionKey key) throws IOException {
+            last = System.currentTimeMillis();
+            if (state == UDP) {
+                if (key == udpKey) {
+                    udp.pump();
+                } else if (key.isReadable()) {
+                    up.clear();
+                    if (client.read(up) < 0) {
+                        close();
+                        return;
+                    }
+                    up.clear();
+                }
+                drain(down, client);
+                updateInterest();
+                return;
+            }
+            if (state == CONNECTING) {
+                if (key != clientKey && key.isConnectable()) {
+                    finishConnect(key);
+                } else if (key == clientKey && key.isWritable()) {
+                    drain(down, client);
+                    updateInterest();
+                }
+                return;
+            }
+            if (key.isReadable()) {
+                if (key == clientKey) {
+                    int n = client.read(up);
+                    clientEof = n < 0;
+                    upSize.observe(n, up.capacity());
+                } else {
+                    int n = target.read(down);
+                    targetEof = n < 0;
+                    if (n > 0) {
+                        METRICS.bytesOut.addAndGet(n);
+                    }
+                    downSize.observe(n, down.capacity());
+                }
+            }
+            if (state < CONNECTING) {
+                handshake();
+            }
+            if (state == RELAY) {
+                relay();
+            } else if (state != CLOSED) {
+                if (state != CONNECTING) {
+                    drain(down, client);
+                }
+                updateInterest();
+            }
+        }
+
+        private void handshake() throws IOException {
+            if (state == GREETING && up.position() > 0 && (up.get(0) == CONTROL || up.get(0) == MUX)) {
+                handoff(up.get(0) == MUX);
+                return;
+            }
+            if (state == GREETING) {
+                int n;
+                try {
+                    n = parseGreeting(up.array(), 0, up.position());
+                } catch (IOException e) {
+                    METRICS.handshakeFailures.incrementAndGet();
+                    client.write(ByteBuffer.wrap(new byte[]{0x05, (byte) 0xFF}));
+                    close();
+                    return;
+                }
+                if (n > 0) {
+                    consume(n);
+                    down.put((byte) 0x05).put((byte) 0x00);
+                    state = REQUEST;
+                }
+            }
+            if (state == REQUEST) {
+                Request r;
+                try {
+                    r = parseRequest(up.array(), 0, up.position());
+                } catch (IOException e) {
+                    fail(0x08);
+                    return;
+                }
+                if (r == null) {
+                    if (clientEof || !up.hasRemaining()) {
+                        close();
+                    }
+                    return;
+                }
+                consume(r.length);
+                if (r.cmd == 0x03) {
+                    associate(r);
+                    return;
+                }
+                if (r.cmd != 0x01) {
+                    fail(0x07);
+                    return;
+                }
+                state = CONNECTING;
+                deadline = System.currentTimeMillis() + REAPER.connectTimeout();
+                if (r.atyp != 0x03) {
+                    connect(new InetAddress[]{InetAddress.getByAddress(r.addr)}, r.port);
+                } else {
+                    resolve(r.host, r.port);
+                }
+            } else if (clientEof) {
+                close();
+            }
+        }
+
+        private void associate(Request r) throws IOException {
+            InetSocketAddress expected = r.atyp == 0x03 ? null
+                    : new InetSocketAddress(InetAddress.getByAddress(r.addr), r.port);
+            try {
+                udp = new UdpAssociation(client.socket().getLocalAddress(), client.socket().getInetAddress(), expected);
+                udpKey = udp.channel.register(loop.selector, SelectionKey.OP_READ, this);
+            } catch (IOException e) {
+                fail(0x01);
+                return;
+            }
+            down.put(buildReply(0x00, udp.bound()));
+            METRICS.handshake(acceptedAt);
+            state = UDP;
+        }
+
+        private void resolve(final String host, final int port) {
+            resolver.resolve(host, new ResolveCallback() {
+                public void resolved(final InetAddress[] addrs, IOException error) {
+                    loop.execute(new Runnable() {
+                        public void run() {
+                            if (addrs == null) {
+                                fail(0x04);
+                                return;
+                            }
+                            connect(addrs, port);
+                        }
+                    });
+                }
+            });
+        }
+
+        private void connect(InetAddress[] addrs, int port) {
+            if (state == CLOSED) {
+                return;
+            }
+            if (isListener(addrs, port)) {
+                fail(0x02);
+                return;
+            }
+            order = interleave(addrs);
+            targetPort = port;
+            loop.racing.add(this);
+            updateInterest();
+            nextAttempt();
+        }
+
+        private void nextAttempt() {
+            while (state == CONNECTING && next < order.length) {
+                SocketChannel ch = null;
+                try {
+                    ch = SocketChannel.open();
+                    ch.configureBlocking(false);
+                    TUNING.apply(ch.socket());
+                    nextAttemptAt = System.currentTimeMillis() + ATTEMPT_DELAY_MS;
+                    if (ch.connect(new InetSocketAddress(order[next++], targetPort))) {
+                        won(ch, ch.register(loop.selector, 0, this));
+                    } else {
+                        attempts.add(ch.register(loop.selector, SelectionKey.OP_CONNECT, this));
+                    }
+                    return;
+                } catch (IOException e) {
+                    closeQuietly(ch);
+                }
+            }
+            if (state == CONNECTING && attempts.isEmpty()) {
+                fail(0x05);
+            }
+        }
+
+        private void finishConnect(SelectionKey key) {
+            SocketChannel ch = (SocketChannel) key.channel();
+            try {
+                if (ch.finishConnect()) {
+                    attempts.remove(key);
+                    won(ch, key);
+                }
+            } catch (IOException e) {
+                attempts.remove(key);
+                closeQuietly(ch);
+                nextAttempt();
+            }
+        }
+
+        private void won(SocketChannel ch, SelectionKey key) {
+            loop.racing.remove(this);
+            cancelAttempts();
+            target = ch;
+            targetKey = key;
+            key.interestOps(0);
+            try {
+                connected();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void cancelAttempts() {
+            for (SelectionKey key : attempts) {
+                closeQuietly(key.channel());
+            }
+            attempts.clear();
+        }
+
+        void tick(long now) {
+            if (state == CONNECTING && order != null && next < order.length && now >= nextAttemptAt) {
+                nextAttempt();
+            }
+        }
+
+        private void connected() throws IOException {
+            down.put(buildReply(0x00, (InetSocketAddress) target.socket().getLocalSocketAddress()));
+            METRICS.handshake(acceptedAt);
+            flow = SHAPER.flow(targetPort);
+            state = RELAY;
+            relay();
+        }
+
+        void resume() {
+            throttled = false;
+            loop.throttled.remove(this);
+            try {
+                relay();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void relay() throws IOException {
+            if (state != RELAY) {
+                return;
+            }
+            METRICS.bytesIn.addAndGet(drainShaped(up, target));
+            drainShaped(down, client);
+            if (up.position() == 0 && up.capacity() != BufferPool.SIZES[upSize.cls]) {
+                BUFFERS.release(up.array());
+                up = ByteBuffer.wrap(BUFFERS.acquire(upSize.cls));
+            }
+            if (down.position() == 0 && down.capacity() != BufferPool.SIZES[downSize.cls]) {
+                BUFFERS.release(down.array());
+                down = ByteBuffer.wrap(BUFFERS.acquire(downSize.cls));
+            }
+            if (clientEof && up.position() == 0 && !targetOutShut) {
+                target.socket().shutdownOutput();
+                targetOutShut = true;
+                REAPER.halfCloses.incrementAndGet();
+            }
+            if (targetEof && down.position() == 0 && !clientOutShut) {
+                client.socket().shutdownOutput();
+                clientOutShut = true;
+                REAPER.halfCloses.incrementAndGet();
+            }
+            if (clientOutShut && targetOutShut) {
+                close();
+                return;
+            }
+            updateInterest();
+        }
+
+        // 整形暂停期间不关注可写, 由事件循环到点重试
+        private void updateInterest() {
+            int ops = down.position() > 0 && state != CONNECTING && !throttled ? SelectionKey.OP_WRITE : 0;
+            if (!clientEof && up.hasRemaining() && state != CONNECTING) {
+                ops |= SelectionKey.OP_READ;
+            }
+            clientKey.interestOps(ops);
+            if (state == RELAY) {
+                ops = up.position() > 0 && !throttled ? SelectionKey.OP_WRITE : 0;
+                if (!targetEof && down.hasRemaining()) {
+                    ops |= SelectionKey.OP_READ;
+                }
+                targetKey.interestOps(ops);
+            }
+        }
+
+        void fail(int rep) {
+            if (state == CLOSED) {
+                return;
+            }
+            METRICS.handshakeFailures.incrementAndGet();
+            try {
+                byte[] reply = buildReply(rep, null);
+                if (down.remaining() >= reply.length) {
+                    down.put(reply);
+                }
+                drain(down, client);
+            } catch (IOException ignored) {
+            }
+            close();
+        }
+
+        private void consume(int n) {
+            up.flip();
+            up.position(n);
+            up.compact();
+        }
+
+        private static int drain(ByteBuffer buf, SocketChannel ch) throws IOException {
+            if (buf.position() == 0) {
+                return 0;
+            }
+            buf.flip();
+            int n = ch.write(buf);
+            buf.compact();
+            return n;
+        }
+
+        // 只写出整形允许的部分, 未获准时登记到事件循环的暂停列表
+        private int drainShaped(ByteBuffer buf, SocketChannel ch) throws IOException {
+            if (buf.position() == 0) {
+                return 0;
+            }
+            int allowed = SHAPER.tryAcquire(flow, buf.position());
+            if (allowed == 0) {
+                if (!throttled) {
+                    throttled = true;
+                    loop.throttled.add(this);
+                }
+                return 0;
+            }
+            buf.flip();
+            int limit = buf.limit();
+            buf.limit(allowed);
+            int n = ch.write(buf);
+            buf.limit(limit);
+            buf.compact();
+            if (n < allowed) {
+                SHAPER.refund(flow, allowed - n);
+            }
+            return n;
+        }
+
+        // 事件循环每秒巡检一次: 建连按各自的期限, 其余阶段与阻塞模式共用回收规则
+        void sweep(long now) {
+            if (state == CLOSED) {
+                return;
+            }
+            if (state == CONNECTING) {
+                if (now > deadline) {
+                    REAPER.connects.incrementAndGet();
+                    fail(0x04);
+                }
+                return;
+            }
+            // 已回复方法选择、等待请求的会话 (预连接池) 与 BIO 一样按空闲时限回收
+            int phase = state == GREETING ? Watch.HANDSHAKE
+                    : clientOutShut || targetOutShut ? Watch.HALF : Watch.RELAY;
+            AtomicLong counter = REAPER.expired(phase, openedAt, last, now);
+            if (counter != null) {
+                counter.incrementAndGet();
+                close();
+            }
+        }
+
+        // 控制连接与多路复用隧道交给独立线程以阻塞方式处理, 需先在下一轮 select 中注销再切换阻塞模式
+        private void handoff(final boolean mux) {
+            final byte[] prefix = new byte[up.position() - 1];
+            System.arraycopy(up.array(), 1, prefix, 0, prefix.length);
+            release();
+            clientKey.cancel();
+            loop.execute(new Runnable() {
+                public void run() {
+                    try {
+                        client.configureBlocking(true);
+                        final Socket s = client.socket();
+                        final InputStream in = new SequenceInputStream(new ByteArrayInputStream(prefix), s.getInputStream());
+                        new Thread(new Runnable() {
+                            public void run() {
+                                try {
+                                    if (mux) {
+                                        // 隧道存续期间计入活动连接, 优雅停止时据此等待
+                                        METRICS.active.incrementAndGet();
+                                        try {
+                                            handleMux(s, in, null);
+                                        } finally {
+                                            METRICS.active.decrementAndGet();
+                                        }
+                                    } else {
+                                        handleControl(s, in);
+                                    }
+                                } catch (IOException e) {
+                                    closeQuietly(client);
+                                }
+                            }
+                        }, mux ? "SOCKS-Mux" : "SOCKS-Control").start();
+                    } catch (IOException e) {
+                        closeQuietly(client);
+                    }
+                }
+            });
+        }
+
+        void close() {
+            if (state == CLOSED) {
+                return;
+            }
+            release();
+            closeQuietly(client);
+            closeQuietly(target);
+            if (udp != null) {
+                udp.close();
+            }
+            cancelAttempts();
+            loop.racing.remove(this);
+            loop.throttled.remove(this);
+            if (flow != null) {
+                SHAPER.release(flow);
+            }
+        }
+
+        private void release() {
+            state = CLOSED;
+            METRICS.active.decrementAndGet();
+            BUFFERS.release(up.array());
+            BUFFERS.release(down.array());
+        }
+    }
+}
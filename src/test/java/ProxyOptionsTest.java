@@ -0,0 +1,83 @@
+import com.demo.ProxyConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 客户端 ProxyConfig 生成的选项串与代理端解析须一致; 代理的设置是进程级静态状态, 每个用例后复位
+class ProxyOptionsTest {
+    @AfterEach
+    void tearDown() {
+        OracleSocks5Proxy.SHAPER.reset();
+        OracleSocks5Proxy.REAPER.reset();
+        OracleSocks5Proxy.TUNING.reset();
+    }
+
+    @Test
+    void parsesItems() {
+        Map<String, String> o = OracleSocks5Proxy.parseOptions(" Engine=nio,,sessions = 512 , IDLE=5m,idle=1h");
+        assertEquals("nio", o.get("engine"));
+        assertEquals("512", o.get("sessions"));
+        assertEquals("1h", o.get("idle"), "重复的项以后出现的为准");
+        assertEquals(3, o.size());
+        assertThrows(IllegalArgumentException.class, () -> OracleSocks5Proxy.parseOptions("engine"));
+        assertThrows(IllegalArgumentException.class, () -> OracleSocks5Proxy.parseOptions("=nio"));
+    }
+
+    @Test
+    void startOptionsFromConfig() {
+        ProxyConfig cfg = new ProxyConfig().setEngine("nio").setMaxSessions(512).setBacklog(256).setQueueSize(32)
+                .setKeepAlive(true).setReceiveBuffer(256 * 1024).setTimeouts("idle=5m")
+                .setShaping("global=10m,ports=22:8");
+        Map<String, String> o = OracleSocks5Proxy.parseOptions(cfg.toOptions());
+        // 与 start(port, options) 相同: 先取出只在启动时生效的项, 其余交给 applyOptions
+        assertEquals("nio", o.remove("engine"));
+        assertEquals("512", o.remove("sessions"));
+        assertEquals("256", o.remove("backlog"));
+        assertEquals("32", o.remove("queue"));
+        OracleSocks5Proxy.applyOptions(o);
+
+        assertTrue(OracleSocks5Proxy.TUNING.keepAlive);
+        assertTrue(OracleSocks5Proxy.TUNING.noDelay);
+        assertEquals(256 * 1024, OracleSocks5Proxy.TUNING.receiveBuffer);
+        assertEquals(0, OracleSocks5Proxy.TUNING.sendBuffer);
+        assertEquals(5 * 60 * 1000, OracleSocks5Proxy.REAPER.idleMs);
+        assertEquals(OracleSocks5Proxy.Reaper.HANDSHAKE_MS, OracleSocks5Proxy.REAPER.handshakeMs);
+        assertEquals(10L << 20, OracleSocks5Proxy.SHAPER.globalRate);
+        assertEquals(0, OracleSocks5Proxy.SHAPER.flowRate);
+        assertEquals(8, OracleSocks5Proxy.SHAPER.flow(22).weight);
+    }
+
+    @Test
+    void runtimeOptionsRestoreDefaults() {
+        String stats = OracleSocks5Proxy.reconfigure(new ProxyConfig().setTcpNoDelay(false)
+                .setTimeouts("connect=3s").setShaping("flow=1m").toRuntimeOptions());
+        assertTrue(stats.contains("opt_nodelay=0"), stats);
+        assertTrue(stats.contains("timeout_connect_ms=3000"), stats);
+        assertTrue(stats.contains("shape_flow=1048576"), stats);
+
+        // 清空超时与限速后再次应用, 代理回到默认值而不是沿用上一次的设置
+        stats = OracleSocks5Proxy.reconfigure(new ProxyConfig().setTimeouts(" ").setShaping("off").toRuntimeOptions());
+        assertTrue(stats.contains("opt_nodelay=1"), stats);
+        assertTrue(stats.contains("timeout_connect_ms=" + OracleSocks5Proxy.Reaper.CONNECT_MS), stats);
+        assertTrue(stats.contains("shape_flow=0;"), stats);
+        assertFalse(OracleSocks5Proxy.SHAPER.enabled());
+    }
+
+    @Test
+    void badOptionChangesNothing() {
+        OracleSocks5Proxy.reconfigure("keepalive=on,idle=5m,flow=1m");
+        for (String bad : new String[]{"keepalive=off,idle=1m,flow=2m,bogus=1", "keepalive=off,idle=1m,nodelay=maybe",
+                "keepalive=off,idle=1m,ports=22", "keepalive=off,idle=x", "engine=nio", "queue=8"}) {
+            assertThrows(IllegalArgumentException.class, () -> OracleSocks5Proxy.reconfigure(bad), bad);
+            assertTrue(OracleSocks5Proxy.TUNING.keepAlive, bad);
+            assertEquals(5 * 60 * 1000, OracleSocks5Proxy.REAPER.idleMs, bad);
+            assertEquals(1L << 20, OracleSocks5Proxy.SHAPER.flowRate, bad);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.security.Security;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 代理的 DNS 缓存: 命中与过期按 networkaddress.cache.ttl, 同名并发查询合并为一次
+class ResolverTest {
+    private String savedTtl;
+    private OracleSocks5Proxy.Resolver resolver;
+
+    @BeforeEach
+    void setUp() {
+        savedTtl = Security.getProperty("networkaddress.cache.ttl");
+    }
+
+    @AfterEach
+    void tearDown() {
+        Security.setProperty("networkaddress.cache.ttl", savedTtl == null ? "-1" : savedTtl);
+        if (resolver != null) {
+            resolver.shutdown();
+        }
+    }
+
+    @Test
+    void cachesUntilTtlExpires() throws Exception {
+        Security.setProperty("networkaddress.cache.ttl", "1");
+        resolver = new OracleSocks5Proxy.Resolver(1, 16);
+        InetAddress[] first = resolver.resolve("LOCALHOST", 5000);
+        assertTrue(first.length > 0);
+        assertNotNull(resolver.resolve("localhost", 5000));
+        assertEquals(1, resolver.misses.get(), "名称不区分大小写, 第二次应命中缓存");
+        assertEquals(1, resolver.hits.get());
+
+        Thread.sleep(1100);
+        resolver.resolve("localhost", 5000);
+        assertEquals(2, resolver.misses.get(), "过期后应重新查询");
+    }
+
+    @Test
+    void zeroTtlDisablesCache() throws Exception {
+        Security.setProperty("networkaddress.cache.ttl", "0");
+        resolver = new OracleSocks5Proxy.Resolver(1, 16);
+        resolver.resolve("localhost", 5000);
+        resolver.resolve("localhost", 5000);
+        assertEquals(2, resolver.misses.get());
+        assertEquals(0, resolver.hits.get());
+    }
+
+    @Test
+    void coalescesConcurrentLookups() throws Exception {
+        resolver = new OracleSocks5Proxy.Resolver(1, 16);
+        // 回调在解析线程上执行, 挡住唯一的解析线程, 使后续查询停在进行中
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        resolver.resolve("127.0.0.1", new OracleSocks5Proxy.ResolveCallback() {
+            public void resolved(InetAddress[] addrs, IOException e) {
+                blocked.countDown();
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        final AtomicInteger answered = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            resolver.resolve("localhost", new OracleSocks5Proxy.ResolveCallback() {
+                public void resolved(InetAddress[] addrs, IOException e) {
+                    if (addrs != null && addrs.length > 0) {
+                        answered.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        assertEquals(2, resolver.coalesced.get());
+        gate.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, answered.get());
+        assertEquals(2, resolver.misses.get());
+    }
+}
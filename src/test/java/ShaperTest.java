@@ -0,0 +1,127 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 令牌桶整形: 突发上限、持续速率、欠额偿还与按端口权重的公平分配; 时间相关的断言留有较宽余量
+class ShaperTest {
+    @Test
+    void disabledPassesThrough() {
+        OracleSocks5Proxy.Shaper shaper = new OracleSocks5Proxy.Shaper();
+        assertFalse(shaper.enabled());
+        assertEquals(1 << 20, shaper.tryAcquire(shaper.flow(80), 1 << 20));
+    }
+
+    @Test
+    void parsesSpec() {
+        OracleSocks5Proxy.Shaper shaper = new OracleSocks5Proxy.Shaper();
+        shaper.configure("global=10m, flow=2M ,burst=1k,ports=22:8|3389:0");
+        assertEquals(10L << 20, shaper.globalRate);
+        assertEquals(2L << 20, shaper.flowRate);
+        assertEquals(OracleSocks5Proxy.Shaper.QUANTUM, shaper.burst, "突发不小于一个写出单位");
+        assertEquals(8, shaper.flow(22).weight);
+        assertEquals(1, shaper.flow(3389).weight, "权重至少为 1");
+        assertEquals(1, shaper.flow(80).weight);
+
+        shaper.configure("flow=0");
+        assertEquals(10L << 20, shaper.globalRate, "未出现的项保持不变");
+        shaper.configure("off");
+        assertFalse(shaper.enabled());
+        assertEquals(8, shaper.flow(22).weight);
+
+        assertEquals(3L << 30, OracleSocks5Proxy.Shaper.parseSize("3g"));
+        assertThrows(IllegalArgumentException.class, () -> shaper.configure("rate=1m"));
+        assertThrows(IllegalArgumentException.class, () -> shaper.configure("ports=22"));
+        assertThrows(IllegalArgumentException.class, () -> shaper.configure("global"));
+    }
+
+    @Test
+    void burstThenRefill() throws Exception {
+        OracleSocks5Proxy.Shaper shaper = new OracleSocks5Proxy.Shaper();
+        shaper.configure("flow=64k,burst=64k");
+        OracleSocks5Proxy.Flow f = shaper.flow(80);
+        long total = 0;
+        int n;
+        while ((n = shaper.tryAcquire(f, 1 << 20)) > 0) {
+            assertTrue(n <= OracleSocks5Proxy.Shaper.QUANTUM);
+            total += n;
+        }
+        assertTrue(total >= 64 * 1024 && total < 80 * 1024, "突发应约为 burst: " + total);
+        assertTrue(shaper.waits.get() > 0);
+
+        // 64k/s 下 100ms 补回约 6.4k, 超过最小放行量
+        Thread.sleep(100);
+        n = shaper.tryAcquire(f, 1 << 20);
+        assertTrue(n >= OracleSocks5Proxy.Shaper.MIN_GRANT && n < 32 * 1024, "补充量: " + n);
+    }
+
+    @Test
+    void acquireHoldsFlowRate() throws Exception {
+        OracleSocks5Proxy.Shaper shaper = new OracleSocks5Proxy.Shaper();
+        shaper.configure("flow=256k,burst=16k");
+        OracleSocks5Proxy.Flow f = shaper.flow(80);
+        long begin = System.nanoTime();
+        long total = 0;
+        while (total < 144 * 1024) {
+            total += shaper.acquire(f, 64 * 1024);
+        }
+        long ms = (System.nanoTime() - begin) / 1000000;
+        // 扣除突发后 128k 按 256k/s 约需 500ms
+        assertTrue(ms >= 400 && ms < 2000, "耗时 " + ms + "ms");
+    }
+
+    @Test
+    void chargeCreatesDebtAndRefundRepays() {
+        OracleSocks5Proxy.Shaper shaper = new OracleSocks5Proxy.Shaper();
+        shaper.configure("flow=16k,burst=16k");
+        OracleSocks5Proxy.Flow f = shaper.flow(80);
+        shaper.charge(f, 64 * 1024);
+        assertEquals(0, shaper.tryAcquire(f, 8192), "先扣除的额度需先偿还");
+        shaper.refund(f, 1 << 20);
+        assertEquals(8192, shaper.tryAcquire(f, 8192), "退回不超过 burst 后可再放行");
+    }
+
+    @Test
+    void globalRateSharedByWeight() throws Exception {
+        final OracleSocks5Proxy.Shaper shaper = new OracleSocks5Proxy.Shaper();
+        shaper.configure("global=1m,burst=16k,ports=22:3");
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong heavy = new AtomicLong();
+        final AtomicLong light = new AtomicLong();
+        Thread a = pump(shaper, shaper.flow(22), heavy, stop);
+        Thread b = pump(shaper, shaper.flow(80), light, stop);
+        Thread.sleep(200);
+        long h0 = heavy.get(), l0 = light.get();
+        Thread.sleep(800);
+        stop.set(true);
+        a.join(2000);
+        b.join(2000);
+        double ratio = (double) (heavy.get() - h0) / Math.max(1, light.get() - l0);
+        long rate = (heavy.get() - h0 + light.get() - l0) * 1000 / 800;
+        assertTrue(ratio > 2 && ratio < 4.5, "权重比 " + ratio);
+        assertTrue(rate > 700 * 1024 && rate < 1400 * 1024, "合计速率 " + rate);
+    }
+
+    private static Thread pump(final OracleSocks5Proxy.Shaper shaper, final OracleSocks5Proxy.Flow f,
+                               final AtomicLong counter, final AtomicBoolean stop) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (!stop.get()) {
+                        counter.addAndGet(shaper.acquire(f, 4096));
+                    }
+                } catch (InterruptedIOException ignored) {
+                }
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+}
@@ -0,0 +1,103 @@
+package com.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockCompressorTest {
+    private final BlockCompressor codec = new BlockCompressor();
+    private final byte[] wire = new byte[MuxTunnel.FRAME];
+    private final byte[] plain = new byte[MuxTunnel.FRAME];
+
+    @Test
+    void roundTrip() throws IOException {
+        byte[] src = text(MuxTunnel.FRAME);
+        Inflater inf = new Inflater(true);
+        try {
+            // 同一个 Inflater 连续解多个独立块
+            for (int i = 0; i < 3; i++) {
+                int z = codec.deflate(new BlockCompressor.Backoff(), src, 0, src.length, wire);
+                assertTrue(z > 0 && z < src.length / 2);
+                assertEquals(src.length, codec.inflate(inf, wire, z, plain));
+                assertArrayEquals(src, plain);
+            }
+        } finally {
+            inf.end();
+        }
+        long[] stats = codec.getStats();
+        assertEquals(3L * src.length, stats[0]);
+        assertEquals(3L * src.length, stats[2]);
+        assertEquals(stats[1], stats[3]);
+    }
+
+    @Test
+    void smallBlocksSentRaw() {
+        byte[] src = new byte[255];
+        assertEquals(0, codec.deflate(new BlockCompressor.Backoff(), src, 0, src.length, wire));
+        assertEquals(0, codec.getStats()[4], "过小的块不计入跳过");
+    }
+
+    @Test
+    void incompressibleBacksOffExponentially() {
+        byte[] noise = new byte[4096];
+        new Random(1).nextBytes(noise);
+        BlockCompressor.Backoff b = new BlockCompressor.Backoff();
+        // 失败后依次跳过 1、2、4 块
+        assertEquals(0, codec.deflate(b, noise, 0, noise.length, wire));
+        assertSkips(b, 1, noise);
+        assertEquals(0, codec.deflate(b, noise, 0, noise.length, wire));
+        assertSkips(b, 2, noise);
+        assertEquals(0, codec.deflate(b, noise, 0, noise.length, wire));
+        assertSkips(b, 4, noise);
+        assertEquals(7, codec.getStats()[4]);
+
+        // 压缩成功后退避复位, 再失败只跳过 1 块
+        byte[] src = text(4096);
+        assertTrue(codec.deflate(b, src, 0, src.length, wire) > 0);
+        assertEquals(0, codec.deflate(b, noise, 0, noise.length, wire));
+        assertEquals(0, codec.deflate(b, src, 0, src.length, wire), "仍在跳过");
+        assertTrue(codec.deflate(b, src, 0, src.length, wire) > 0);
+    }
+
+    @Test
+    void rejectsBadBlocks() throws IOException {
+        byte[] src = text(MuxTunnel.FRAME);
+        int z = codec.deflate(new BlockCompressor.Backoff(), src, 0, src.length, wire);
+        Inflater inf = new Inflater(true);
+        try {
+            assertThrows(ProtocolException.class, () -> codec.inflate(inf, wire, z / 2, plain), "截断");
+            assertThrows(ProtocolException.class, () -> codec.inflate(inf, wire, z, new byte[src.length - 1]), "超长");
+            byte[] junk = new byte[64];
+            Arrays.fill(junk, (byte) 0xFF);
+            assertThrows(ProtocolException.class, () -> codec.inflate(inf, junk, junk.length, plain), "格式错误");
+            // 出错后 Inflater 已复位, 仍可继续使用
+            assertEquals(src.length, codec.inflate(inf, wire, z, plain));
+        } finally {
+            inf.end();
+        }
+    }
+
+    private void assertSkips(BlockCompressor.Backoff b, int n, byte[] src) {
+        for (int i = 0; i < n; i++) {
+            assertEquals(0, codec.deflate(b, src, 0, src.length, wire));
+        }
+    }
+
+    private static byte[] text(int len) {
+        byte[] b = new byte[len];
+        byte[] word = "SELECT * FROM dual; ".getBytes();
+        for (int i = 0; i < len; i++) {
+            b[i] = word[i % word.length];
+        }
+        return b;
+    }
+}
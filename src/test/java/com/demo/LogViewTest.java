@@ -0,0 +1,195 @@
+package com.demo;
+
+import org.junit.jupiter.api.Test;
+
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.awt.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 环形缓冲模型: 定时器每帧批量写入, 超出容量挤出最旧的行, 过滤结果随之淘汰; 列表事件须与行数一致
+class LogViewTest {
+    private static final long WAIT_MS = 5000;
+
+    @Test
+    void keepsOrderWithTimestamp() throws Exception {
+        Fixture f = onEdt(() -> new Fixture(new LogView(100)));
+        for (int i = 0; i < 10; i++) {
+            f.view.append("line " + i);
+        }
+        f.awaitLast("line 9");
+        onEdt(() -> {
+            assertEquals(10, f.model.getSize());
+            for (int i = 0; i < 10; i++) {
+                assertTrue(f.model.getElementAt(i).matches("\\d\\d:\\d\\d:\\d\\d line " + i), f.model.getElementAt(i));
+            }
+            return null;
+        });
+        f.assertEventsConsistent();
+    }
+
+    @Test
+    void evictsOldestBeyondCapacity() throws Exception {
+        Fixture f = onEdt(() -> new Fixture(new LogView(16)));
+        for (int i = 0; i < 40; i++) {
+            f.view.append("line " + i);
+            if (i % 7 == 0) {
+                Thread.sleep(40);
+            }
+        }
+        f.awaitLast("line 39");
+        onEdt(() -> {
+            assertEquals(16, f.model.getSize());
+            assertTrue(f.model.getElementAt(0).endsWith(" line 24"), f.model.getElementAt(0));
+            assertTrue(f.count.getText().contains("已滚出 24 行"), f.count.getText());
+            return null;
+        });
+        f.assertEventsConsistent();
+    }
+
+    @Test
+    void filterFollowsEviction() throws Exception {
+        Fixture f = onEdt(() -> new Fixture(new LogView(16)));
+        for (int i = 0; i < 10; i++) {
+            f.view.append((i % 2 == 0 ? "keep " : "skip ") + i);
+        }
+        f.awaitLast("skip 9");
+        onEdt(() -> {
+            f.filter.setText("keep");
+            assertEquals(5, f.model.getSize());
+            assertTrue(f.model.getElementAt(0).endsWith("keep 0"));
+            return null;
+        });
+
+        // 再写 20 行后环形缓冲只剩 14..29, 匹配的是其中的偶数行
+        for (int i = 10; i < 30; i++) {
+            f.view.append((i % 2 == 0 ? "keep " : "skip ") + i);
+        }
+        f.awaitLast("keep 28");
+        Thread.sleep(100);
+        onEdt(() -> {
+            assertEquals(8, f.model.getSize());
+            assertTrue(f.model.getElementAt(0).endsWith("keep 14"), f.model.getElementAt(0));
+            assertTrue(f.count.getText().startsWith("8 / 16 行"), f.count.getText());
+            f.filter.setText("");
+            assertEquals(16, f.model.getSize());
+            return null;
+        });
+        f.assertEventsConsistent();
+    }
+
+    @Test
+    void clearEmptiesView() throws Exception {
+        Fixture f = onEdt(() -> new Fixture(new LogView(16)));
+        f.view.append("a");
+        f.awaitLast("a");
+        f.view.clear();
+        // clear 排在 EDT 上执行, 会一并丢弃尚未写入的行
+        onEdt(() -> {
+            assertEquals(0, f.model.getSize());
+            return null;
+        });
+        f.view.append("b");
+        f.awaitLast("b");
+        onEdt(() -> {
+            assertEquals(1, f.model.getSize());
+            return null;
+        });
+        f.assertEventsConsistent();
+    }
+
+    private static <T> T onEdt(java.util.concurrent.Callable<T> task) throws Exception {
+        Object[] result = new Object[1];
+        Exception[] error = new Exception[1];
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                result[0] = task.call();
+            } catch (Exception e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        @SuppressWarnings("unchecked")
+        T t = (T) result[0];
+        return t;
+    }
+
+    private static <T extends Component> T find(Container root, Class<T> type) {
+        for (Component c : root.getComponents()) {
+            if (type.isInstance(c)) {
+                return type.cast(c);
+            }
+            if (c instanceof Container) {
+                T found = find((Container) c, type);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    // 按列表事件累计的行数, 与模型行数对照
+    private static final class Fixture implements ListDataListener {
+        final LogView view;
+        final ListModel<String> model;
+        final JTextField filter;
+        final JLabel count;
+        final AtomicInteger tracked = new AtomicInteger();
+        volatile String mismatch;
+
+        @SuppressWarnings("unchecked")
+        Fixture(LogView view) {
+            this.view = view;
+            this.model = (ListModel<String>) find(view, JList.class).getModel();
+            this.filter = find(view, JTextField.class);
+            JLabel last = null;
+            for (Component c : ((Container) view.getComponent(0)).getComponents()) {
+                if (c instanceof JLabel) {
+                    last = (JLabel) c;
+                }
+            }
+            this.count = last;
+            model.addListDataListener(this);
+        }
+
+        public void intervalAdded(ListDataEvent e) {
+            int n = tracked.addAndGet(e.getIndex1() - e.getIndex0() + 1);
+            check(e.getIndex1() == model.getSize() - 1 && n == model.getSize(), "added " + e.getIndex0() + ".." + e.getIndex1());
+        }
+
+        public void intervalRemoved(ListDataEvent e) {
+            check(e.getIndex0() == 0, "removed from " + e.getIndex0());
+            tracked.addAndGet(-(e.getIndex1() - e.getIndex0() + 1));
+        }
+
+        public void contentsChanged(ListDataEvent e) {
+            tracked.set(model.getSize());
+        }
+
+        private void check(boolean ok, String what) {
+            if (!ok && mismatch == null) {
+                mismatch = what + ", tracked " + tracked.get() + ", size " + model.getSize();
+            }
+        }
+
+        void awaitLast(String suffix) throws Exception {
+            long deadline = System.currentTimeMillis() + WAIT_MS;
+            while (!onEdt(() -> model.getSize() > 0 && model.getElementAt(model.getSize() - 1).endsWith(suffix))) {
+                assertTrue(System.currentTimeMillis() < deadline, "等待 " + suffix + " 超时");
+                Thread.sleep(10);
+            }
+        }
+
+        void assertEventsConsistent() throws Exception {
+            assertEquals(null, mismatch);
+            assertEquals((int) onEdt(model::getSize), tracked.get());
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.demo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 以本地 ServerSocket 扮演库内代理, 按帧校验隧道的编码与额度控制
+class MuxTunnelTest {
+    private static final byte[] OK = {0x05, 0x00, 0x00, 0x01, 127, 0, 0, 1, 0x1F, (byte) 0x90};
+
+    private ServerSocket proxy;
+    private Socket peer;
+    private DataInputStream peerIn;
+    private DataOutputStream peerOut;
+    private MuxTunnel tunnel;
+    // 本机 SOCKS 客户端的两端: local 交给隧道, user 由测试读写
+    private Socket local;
+    private Socket user;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        proxy = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (tunnel != null) {
+            tunnel.close();
+        }
+        for (Socket s : new Socket[]{peer, local, user}) {
+            if (s != null) {
+                s.close();
+            }
+        }
+        proxy.close();
+    }
+
+    @Test
+    void rejectsProxyWithoutMux() throws Exception {
+        CompletableFuture<Void> fake = CompletableFuture.runAsync(() -> {
+            try (Socket s = proxy.accept()) {
+                s.getInputStream().read(new byte[2]);
+                s.getOutputStream().write(new byte[]{0x05, (byte) 0xFF});
+            } catch (IOException ignored) {
+            }
+        });
+        IOException e = assertThrows(IOException.class,
+                () -> new MuxTunnel("127.0.0.1", proxy.getLocalPort(), 2000, null));
+        assertTrue(e.getMessage().contains("多路复用"));
+        fake.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void openWritesFrameAndRelaysReply() throws Exception {
+        connect(null);
+        byte[] request = {0x05, 0x01, 0x00, 0x01, 10, 0, 0, 1, 0x00, 0x50};
+        CompletableFuture<MuxTunnel.Stream> opening = openAsync(request);
+
+        Frame open = readFrame();
+        assertEquals(MuxTunnel.OPEN, open.type);
+        assertEquals(1, open.id);
+        assertArrayEquals(request, open.payload);
+
+        writeFrame(MuxTunnel.REPLY, open.id, OK);
+        MuxTunnel.Stream s = opening.get(5, TimeUnit.SECONDS);
+        assertTrue(s.succeeded());
+        byte[] reply = new byte[OK.length];
+        new DataInputStream(user.getInputStream()).readFully(reply);
+        assertArrayEquals(OK, reply);
+
+        s.write("hello".getBytes("US-ASCII"), 0, 5);
+        Frame data = readFrame();
+        assertEquals(MuxTunnel.DATA, data.type);
+        assertEquals(open.id, data.id);
+        assertEquals("hello", new String(data.payload, "US-ASCII"));
+
+        s.finish();
+        Frame fin = readFrame();
+        assertEquals(MuxTunnel.FIN, fin.type);
+        assertEquals(0, fin.payload.length);
+    }
+
+    @Test
+    void failedReplyEndsStream() throws Exception {
+        connect(null);
+        CompletableFuture<MuxTunnel.Stream> opening = openAsync(new byte[]{0x05, 0x01, 0x00, 0x01, 10, 0, 0, 1, 0, 1});
+        Frame open = readFrame();
+        writeFrame(MuxTunnel.REPLY, open.id, new byte[]{0x05, 0x05, 0x00, 0x01, 0, 0, 0, 0, 0, 0});
+        MuxTunnel.Stream s = opening.get(5, TimeUnit.SECONDS);
+        assertFalse(s.succeeded());
+        assertThrows(IOException.class, () -> s.write(new byte[1], 0, 1));
+        assertEquals(0, tunnel.streamCount());
+    }
+
+    @Test
+    void writeStopsAtWindowUntilCredit() throws Exception {
+        connect(null);
+        MuxTunnel.Stream s = establish();
+        byte[] payload = new byte[MuxTunnel.WINDOW + MuxTunnel.FRAME];
+        CompletableFuture<Void> writing = CompletableFuture.runAsync(() -> {
+            try {
+                s.write(payload, 0, payload.length);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        int received = 0;
+        while (received < MuxTunnel.WINDOW) {
+            Frame f = readFrame();
+            assertEquals(MuxTunnel.DATA, f.type);
+            assertTrue(f.payload.length <= MuxTunnel.FRAME);
+            received += f.payload.length;
+        }
+        assertEquals(MuxTunnel.WINDOW, received);
+        peer.setSoTimeout(300);
+        assertThrows(SocketTimeoutException.class, this::readFrame, "额度用完后不应再发送");
+        assertFalse(writing.isDone());
+
+        peer.setSoTimeout(5000);
+        writeFrame(MuxTunnel.CREDIT, 1, intBytes(MuxTunnel.FRAME));
+        Frame rest = readFrame();
+        assertEquals(MuxTunnel.FRAME, rest.payload.length);
+        writing.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void creditReturnedAfterDelivery() throws Exception {
+        connect(null);
+        establish();
+        byte[] chunk = new byte[MuxTunnel.FRAME];
+        int frames = MuxTunnel.WINDOW / 2 / MuxTunnel.FRAME;
+        for (int i = 0; i < frames; i++) {
+            Arrays.fill(chunk, (byte) i);
+            writeFrame(MuxTunnel.DATA, 1, chunk);
+        }
+        byte[] got = new byte[frames * MuxTunnel.FRAME];
+        new DataInputStream(user.getInputStream()).readFully(got);
+        assertEquals((byte) (frames - 1), got[got.length - 1]);
+
+        Frame credit = readFrame();
+        assertEquals(MuxTunnel.CREDIT, credit.type);
+        assertEquals(MuxTunnel.WINDOW / 2, toInt(credit.payload));
+    }
+
+    @Test
+    void compressibleBlocksSentAsZdata() throws Exception {
+        connect(new BlockCompressor());
+        MuxTunnel.Stream s = establish();
+        byte[] text = new byte[8192];
+        Arrays.fill(text, (byte) 'a');
+        s.write(text, 0, text.length);
+        Frame z = readFrame();
+        assertEquals(MuxTunnel.ZDATA, z.type);
+        assertTrue(z.payload.length < text.length / 8);
+
+        Inflater inf = new Inflater(true);
+        inf.setInput(z.payload);
+        byte[] plain = new byte[text.length];
+        assertEquals(text.length, inf.inflate(plain));
+        inf.end();
+        assertArrayEquals(text, plain);
+
+        s.write(new byte[]{1, 2, 3}, 0, 3);
+        assertEquals(MuxTunnel.DATA, readFrame().type, "小块原样发送");
+    }
+
+    private void connect(BlockCompressor codec) throws Exception {
+        int version = codec != null ? MuxTunnel.VERSION_DEFLATE : MuxTunnel.VERSION;
+        CompletableFuture<MuxTunnel> client = CompletableFuture.supplyAsync(() -> {
+            try {
+                return new MuxTunnel("127.0.0.1", proxy.getLocalPort(), 5000, codec);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        peer = proxy.accept();
+        peer.setSoTimeout(5000);
+        peerIn = new DataInputStream(peer.getInputStream());
+        peerOut = new DataOutputStream(peer.getOutputStream());
+        assertEquals(MuxTunnel.MAGIC, peerIn.read());
+        assertEquals(version, peerIn.read());
+        peerOut.write(MuxTunnel.MAGIC);
+        peerOut.write(version);
+        peerOut.flush();
+        tunnel = client.get(5, TimeUnit.SECONDS);
+
+        try (ServerSocket ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            user = new Socket(ss.getInetAddress(), ss.getLocalPort());
+            local = ss.accept();
+        }
+        user.setSoTimeout(5000);
+    }
+
+    private MuxTunnel.Stream establish() throws Exception {
+        CompletableFuture<MuxTunnel.Stream> opening = openAsync(new byte[]{0x05, 0x01, 0x00, 0x01, 10, 0, 0, 1, 0, 80});
+        Frame open = readFrame();
+        writeFrame(MuxTunnel.REPLY, open.id, OK);
+        MuxTunnel.Stream s = opening.get(5, TimeUnit.SECONDS);
+        new DataInputStream(user.getInputStream()).readFully(new byte[OK.length]);
+        return s;
+    }
+
+    private CompletableFuture<MuxTunnel.Stream> openAsync(byte[] request) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return tunnel.open(request, local, 5000);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private Frame readFrame() throws IOException {
+        Frame f = new Frame();
+        f.type = peerIn.readUnsignedByte();
+        f.id = peerIn.readInt();
+        f.payload = new byte[peerIn.readInt()];
+        peerIn.readFully(f.payload);
+        return f;
+    }
+
+    private void writeFrame(int type, int id, byte[] payload) throws IOException {
+        peerOut.write(type);
+        peerOut.writeInt(id);
+        peerOut.writeInt(payload.length);
+        peerOut.write(payload);
+        peerOut.flush();
+    }
+
+    private static byte[] intBytes(int v) {
+        return new byte[]{(byte) (v >>> 24), (byte) (v >>> 16), (byte) (v >>> 8), (byte) v};
+    }
+
+    private static int toInt(byte[] b) {
+        return ((b[0] & 0xFF) << 24) | ((b[1] & 0xFF) << 16) | ((b[2] & 0xFF) << 8) | (b[3] & 0xFF);
+    }
+
+    private static final class Frame {
+        int type;
+        int id;
+        byte[] payload;
+    }
+}